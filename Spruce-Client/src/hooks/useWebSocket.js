@@ -26,6 +26,54 @@ export default function useWebSocket() {
     return () => unsub();
   }, []);
 
+  const receiveMessage = useCallback(async (data) => {
+    // Normalize senderId to string for consistency
+    const peerId = String(data.senderId);
+    if (!peerId || peerId === 'undefined' || peerId === 'null') {
+      console.error('❌ Message missing senderId');
+      return;
+    }
+    
+    // Get fresh sessions state
+    const currentSessions = useSessionStore.getState().sessions;
+    const sess = currentSessions[peerId];
+    
+    if (!sess || !sess.key) {
+      console.warn('⚠️ Message received but no session key for peer:', peerId);
+      console.log('Available sessions:', Object.keys(currentSessions));
+      // Queue message or request handshake - for now, just log
+      return;
+    }
+    
+    try {
+      // Ensure ciphertext and iv are base64 strings
+      const ciphertext = typeof data.ciphertext === 'string' ? data.ciphertext : toBase64(data.ciphertext);
+      const iv = typeof data.iv === 'string' ? data.iv : toBase64(data.iv);
+      
+      const plaintext = await aesDecrypt(
+        fromBase64(ciphertext),
+        sess.key,
+        fromBase64(iv),
+        '', // aad
+        peerId
+      );
+      const text = new TextDecoder().decode(plaintext);
+      
+      const updated = { ...chatsRef.current };
+      if (!updated[peerId]) updated[peerId] = [];
+      updated[peerId] = [...updated[peerId], { 
+        id: data.id || crypto.randomUUID(), 
+        senderId: peerId, 
+        text, 
+        ts: data.ts || Date.now() 
+      }];
+      setChats(updated);
+      console.log('✅ Message decrypted and added to chat:', text.substring(0, 50));
+    } catch (e) {
+      console.error('❌ Failed to decrypt message from', peerId, ':', e);
+    }
+  }, [setChats]);
+
   const connectWebSocket = useCallback(() => {
     if (!token) return;
     
@@ -94,50 +142,17 @@ export default function useWebSocket() {
           }
           
           if (data.type === 'message') {
-            // Normalize senderId to string for consistency
-            const peerId = String(data.senderId);
-            if (!peerId || peerId === 'undefined' || peerId === 'null') {
-              console.error('❌ Message missing senderId');
-              return;
-            }
-            
-            // Get fresh sessions state
-            const currentSessions = useSessionStore.getState().sessions;
-            const sess = currentSessions[peerId];
-            
-            if (!sess || !sess.key) {
-              console.warn('⚠️ Message received but no session key for peer:', peerId);
-              console.log('Available sessions:', Object.keys(currentSessions));
-              // Queue message or request handshake - for now, just log
-              return;
+            await receiveMessage(data);
+          }
+
+          if (data.type === 'inbox') {
+            // Backlog held while we were offline; the server sends the next batch once this one is acked
+            for (const msg of data.messages || []) {
+              await receiveMessage(msg);
             }
-            
-            try {
-              // Ensure ciphertext and iv are base64 strings
-              const ciphertext = typeof data.ciphertext === 'string' ? data.ciphertext : toBase64(data.ciphertext);
-              const iv = typeof data.iv === 'string' ? data.iv : toBase64(data.iv);
-              
-              const plaintext = await aesDecrypt(
-                fromBase64(ciphertext),
-                sess.key,
-                fromBase64(iv),
-                '', // aad
-                peerId
-              );
-              const text = new TextDecoder().decode(plaintext);
-              
-              const updated = { ...chatsRef.current };
-              if (!updated[peerId]) updated[peerId] = [];
-              updated[peerId] = [...updated[peerId], { 
-                id: data.id || crypto.randomUUID(), 
-                senderId: peerId, 
-                text, 
-                ts: data.ts || Date.now() 
-              }];
-              setChats(updated);
-              console.log('✅ Message decrypted and added to chat:', text.substring(0, 50));
-            } catch (e) {
-              console.error('❌ Failed to decrypt message from', peerId, ':', e);
+            const ids = (data.messages || []).map((msg) => msg.id);
+            if (ids.length > 0 && ws.readyState === WebSocket.OPEN) {
+              ws.send(JSON.stringify({ type: 'inbox_ack', ids }));
             }
           }
         } catch (e) {
@@ -184,7 +199,7 @@ export default function useWebSocket() {
       isConnectingRef.current = false;
       console.error('❌ Failed to create WebSocket:', error);
     }
-  }, [token]);
+  }, [token, receiveMessage]);
 
   useEffect(() => {
     if (!token) {
@@ -354,4 +369,3 @@ export default function useWebSocket() {
 
   return { sendSecureMessage };
 }
-
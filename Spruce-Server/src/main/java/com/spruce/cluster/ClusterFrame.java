@@ -0,0 +1,64 @@
+package com.spruce.cluster;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Unit of inter-node traffic. The meaning of target/aux depends on the type:
+ * RELAY target=userId; GROUP_RELAY target=groupId, aux=senderId;
+ * RELAY_BINARY/GROUP_RELAY_BINARY as above with a binary WebSocket frame as payload;
+ * PRESENCE_ADD/PRESENCE_REMOVE target=userId; PRESENCE_QUERY target=userId, aux=requestId;
+ * PRESENCE_REPLY aux=requestId, payload=comma-separated node ids;
+ * PRESENCE_RESET clears everything published by sourceNode, which (re)started and owns an empty partition;
+ * INVALIDATE payload=cache topic, NUL, then a key whose format belongs to that topic's cache;
+ * PRESENCE_CHANGES payload=comma-separated +userId/-userId for users online/offline on sourceNode,
+ * aux=1 when it is a full snapshot of sourceNode; PRESENCE_SYNC asks every node for such a snapshot.
+ */
+public record ClusterFrame(Type type, String sourceNode, long target, long aux, byte[] payload) {
+
+    public enum Type {
+        RELAY, GROUP_RELAY, PRESENCE_ADD, PRESENCE_REMOVE, PRESENCE_QUERY, PRESENCE_REPLY, PRESENCE_RESET, INVALIDATE,
+        RELAY_BINARY, GROUP_RELAY_BINARY, PRESENCE_CHANGES, PRESENCE_SYNC
+    }
+
+    public ClusterFrame(Type type, String sourceNode, long target, long aux, String payload) {
+        this(type, sourceNode, target, aux, payload != null ? payload.getBytes(StandardCharsets.UTF_8) : null);
+    }
+
+    /**
+     * Payload as UTF-8 text, or null if there is none.
+     */
+    public String text() {
+        return payload != null ? new String(payload, StandardCharsets.UTF_8) : null;
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeByte(type.ordinal());
+        out.writeUTF(sourceNode);
+        out.writeLong(target);
+        out.writeLong(aux);
+        if (payload == null) {
+            out.writeInt(-1);
+        } else {
+            // writeUTF caps at 64KB; relay payloads carry ciphertext and can be larger
+            out.writeInt(payload.length);
+            out.write(payload);
+        }
+    }
+
+    public static ClusterFrame readFrom(DataInputStream in) throws IOException {
+        Type type = Type.values()[in.readUnsignedByte()];
+        String sourceNode = in.readUTF();
+        long target = in.readLong();
+        long aux = in.readLong();
+        int length = in.readInt();
+        byte[] payload = null;
+        if (length >= 0) {
+            payload = new byte[length];
+            in.readFully(payload);
+        }
+        return new ClusterFrame(type, sourceNode, target, aux, payload);
+    }
+}
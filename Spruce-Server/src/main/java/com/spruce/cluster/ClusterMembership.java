@@ -0,0 +1,62 @@
+package com.spruce.cluster;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Static cluster layout: this node's id and the address of every node, from
+ * app.cluster.node-id and app.cluster.nodes ("id@host:port,id@host:port,...").
+ * The node list order defines presence partition ownership and must match on every node.
+ */
+public class ClusterMembership {
+
+    private final String selfId;
+    private final List<String> nodeIds;
+    private final Map<String, InetSocketAddress> addresses;
+
+    public ClusterMembership(String selfId, String nodes) {
+        this.selfId = selfId;
+        this.addresses = new LinkedHashMap<>();
+        for (String entry : nodes.split(",")) {
+            String trimmed = entry.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            int at = trimmed.indexOf('@');
+            int colon = trimmed.lastIndexOf(':');
+            if (at <= 0 || colon <= at) {
+                throw new IllegalArgumentException("Cluster node must look like id@host:port: " + trimmed);
+            }
+            String id = trimmed.substring(0, at);
+            String host = trimmed.substring(at + 1, colon);
+            int port = Integer.parseInt(trimmed.substring(colon + 1));
+            addresses.put(id, InetSocketAddress.createUnresolved(host, port));
+        }
+        if (!addresses.containsKey(selfId)) {
+            throw new IllegalArgumentException("Cluster node list does not contain this node: " + selfId);
+        }
+        this.nodeIds = List.copyOf(new ArrayList<>(addresses.keySet()));
+    }
+
+    public String getSelfId() {
+        return selfId;
+    }
+
+    public List<String> getNodeIds() {
+        return nodeIds;
+    }
+
+    public InetSocketAddress addressOf(String nodeId) {
+        return addresses.get(nodeId);
+    }
+
+    /**
+     * Node that holds the presence partition for a user.
+     */
+    public String partitionOwner(long userId) {
+        return nodeIds.get(Math.floorMod(Long.hashCode(userId) * 0x9E3779B9, nodeIds.size()));
+    }
+}
@@ -0,0 +1,321 @@
+package com.spruce.cluster;
+
+import com.spruce.id.SnowflakeIdGenerator;
+import com.spruce.service.GroupMembershipCache;
+import com.spruce.websocket.OutboundSession;
+import com.spruce.websocket.RelayFrame;
+import com.spruce.websocket.SessionRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Delivers relay frames to users wherever they are connected.
+ * Local sessions are written through the {@link SessionRegistry}. In cluster mode
+ * (app.cluster.enabled=true) each node also publishes its connected users to the partitioned
+ * {@link PresenceDirectory}, forwards frames for users on other nodes over the
+ * {@link ClusterTransport}, and carries cache invalidations between nodes: a node-local cache
+ * registers an {@link InvalidationListener} under its topic and publishes its changes with
+ * {@link #invalidate}. With cluster mode off this is a local relay.
+ */
+@Component
+public class ClusterRouter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClusterRouter.class);
+
+    /**
+     * Receives other nodes' online/offline changes (see PresenceService).
+     */
+    public interface PresenceListener {
+        /**
+         * Changes of users connected to a node. A snapshot replaces everything known about that node.
+         */
+        void remoteChanges(String node, String changes, boolean snapshot);
+
+        /**
+         * A node (re)started and wants a snapshot of this node's online users.
+         */
+        void snapshotRequested(String node);
+    }
+
+    /**
+     * Applies a change another node published for one cache topic with {@link #invalidate}.
+     */
+    public interface InvalidationListener {
+        void invalidated(String key);
+    }
+
+    private final SessionRegistry sessionRegistry;
+    // Lazy: the cache registers its own invalidation listener here
+    private final ObjectProvider<GroupMembershipCache> groupMembershipCache;
+    private final boolean enabled;
+    private final String nodeId;
+    private final Integer idGeneratorNodeId;
+    private final String nodes;
+    private final String transportType;
+    private final String secret;
+    private final String bindAddress;
+    private final long lookupTimeoutMs;
+
+    private ClusterMembership membership;
+    private ClusterTransport transport;
+    private PresenceDirectory presence;
+    private volatile PresenceListener presenceListener;
+    private final Map<String, InvalidationListener> invalidationListeners = new ConcurrentHashMap<>();
+
+    public ClusterRouter(SessionRegistry sessionRegistry,
+                         ObjectProvider<GroupMembershipCache> groupMembershipCache,
+                         @Value("${app.cluster.enabled:false}") boolean enabled,
+                         @Value("${app.cluster.node-id:node-0}") String nodeId,
+                         @Value("${app.node-id:#{null}}") Integer idGeneratorNodeId,
+                         @Value("${app.cluster.nodes:node-0@localhost:9400}") String nodes,
+                         @Value("${app.cluster.transport:tcp}") String transportType,
+                         @Value("${app.cluster.secret:}") String secret,
+                         @Value("${app.cluster.bind-address:}") String bindAddress,
+                         @Value("${app.cluster.presence-lookup-timeout-ms:2000}") long lookupTimeoutMs) {
+        this.sessionRegistry = sessionRegistry;
+        this.groupMembershipCache = groupMembershipCache;
+        this.enabled = enabled;
+        this.nodeId = nodeId;
+        this.idGeneratorNodeId = idGeneratorNodeId;
+        this.nodes = nodes;
+        this.transportType = transportType;
+        this.secret = secret;
+        this.bindAddress = bindAddress;
+        this.lookupTimeoutMs = lookupTimeoutMs;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        membership = new ClusterMembership(nodeId, nodes);
+        checkIdNodeId();
+        transport = "loopback".equalsIgnoreCase(transportType)
+                ? new LoopbackClusterTransport(nodeId)
+                : new TcpClusterTransport(membership, secret, bindAddress);
+        presence = new PresenceDirectory(membership, transport, lookupTimeoutMs);
+        transport.start(this::onFrame);
+        presence.resetOwnEntries();
+        logger.info("Cluster mode enabled: node {} of {} ({} transport)", nodeId, membership.getNodeIds(), transportType);
+    }
+
+    // Message ids embed app.node-id; tying it to the node's position in the shared node list
+    // keeps it unique across the cluster
+    private void checkIdNodeId() {
+        int position = membership.getNodeIds().indexOf(nodeId);
+        if (position > SnowflakeIdGenerator.MAX_NODE_ID) {
+            throw new IllegalStateException("app.cluster.nodes lists more than " + (SnowflakeIdGenerator.MAX_NODE_ID + 1) + " nodes");
+        }
+        if (idGeneratorNodeId == null || idGeneratorNodeId != position) {
+            throw new IllegalStateException("app.node-id is " + (idGeneratorNodeId == null ? "not set" : idGeneratorNodeId) + " but must be " + position
+                    + ", the position of " + nodeId + " in app.cluster.nodes, so message ids stay unique across nodes");
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (transport != null) {
+            transport.stop();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Call after a session has been registered. Publishes presence on the user's first local session.
+     * Synchronized so publish/unpublish decisions for a user reach the directory in order.
+     */
+    public synchronized void userConnected(long userId) {
+        if (enabled && sessionRegistry.get(userId).length == 1) {
+            presence.publish(userId);
+        }
+    }
+
+    /**
+     * Call after a session has been unregistered. Withdraws presence once the user has no local sessions.
+     */
+    public synchronized void userDisconnected(long userId) {
+        if (enabled && sessionRegistry.get(userId).length == 0) {
+            presence.unpublish(userId);
+        }
+    }
+
+    /**
+     * Deliver a frame to every session of a user on any node. Completes with whether the user
+     * was connected anywhere.
+     */
+    public CompletableFuture<Boolean> routeToUser(long userId, RelayFrame frame) {
+        OutboundSession[] local = sessionRegistry.get(userId);
+        for (OutboundSession session : local) {
+            session.send(frame);
+        }
+        if (!enabled) {
+            return CompletableFuture.completedFuture(local.length > 0);
+        }
+        return presence.lookup(userId).thenApply(remoteNodes -> {
+            boolean forwarded = false;
+            for (String node : remoteNodes) {
+                if (!node.equals(nodeId)) {
+                    transport.send(node, frame.isBinaryOrigin()
+                            ? new ClusterFrame(ClusterFrame.Type.RELAY_BINARY, nodeId, userId, 0, frame.getBinary())
+                            : new ClusterFrame(ClusterFrame.Type.RELAY, nodeId, userId, 0, frame.getText()));
+                    forwarded = true;
+                }
+            }
+            return local.length > 0 || forwarded;
+        });
+    }
+
+    /**
+     * Deliver a group frame to every connected member except the sender. Other nodes get one
+     * frame per group and fan out to their own members. Returns the number of local members reached.
+     */
+    public int routeToGroup(long groupId, long senderId, long[] members, RelayFrame frame) {
+        if (enabled) {
+            // Forwarded in the sender's encoding; the receiving node converts only if it has to
+            broadcast(frame.isBinaryOrigin()
+                    ? new ClusterFrame(ClusterFrame.Type.GROUP_RELAY_BINARY, nodeId, groupId, senderId, frame.getBinary())
+                    : new ClusterFrame(ClusterFrame.Type.GROUP_RELAY, nodeId, groupId, senderId, frame.getText()));
+        }
+        return deliverToLocalMembers(senderId, members, frame);
+    }
+
+    /**
+     * Register the cache behind a topic. Each topic has one listener per node.
+     */
+    public void addInvalidationListener(String topic, InvalidationListener listener) {
+        if (invalidationListeners.putIfAbsent(topic, listener) != null) {
+            throw new IllegalStateException("Invalidation topic " + topic + " is already registered");
+        }
+    }
+
+    /**
+     * Pass a change to the listener for the topic on every other node. The key is opaque here;
+     * the caller has already applied the change to its own cache.
+     */
+    public void invalidate(String topic, String key) {
+        if (enabled) {
+            broadcast(new ClusterFrame(ClusterFrame.Type.INVALIDATE, nodeId, 0, 0, topic + "\0" + key));
+        }
+    }
+
+    /**
+     * Register the presence listener and ask the other nodes who is online on them.
+     */
+    public void setPresenceListener(PresenceListener listener) {
+        this.presenceListener = listener;
+        if (enabled) {
+            broadcast(new ClusterFrame(ClusterFrame.Type.PRESENCE_SYNC, nodeId, 0, 0, (byte[]) null));
+        }
+    }
+
+    /**
+     * Send this node's batch of online/offline changes to every other node.
+     */
+    public void publishPresence(String changes) {
+        if (enabled) {
+            broadcast(new ClusterFrame(ClusterFrame.Type.PRESENCE_CHANGES, nodeId, 0, 0, changes));
+        }
+    }
+
+    /**
+     * Answer a node's PRESENCE_SYNC with everyone online here.
+     */
+    public void sendPresenceSnapshot(String node, String online) {
+        if (enabled) {
+            transport.send(node, new ClusterFrame(ClusterFrame.Type.PRESENCE_CHANGES, nodeId, 0, 1, online));
+        }
+    }
+
+    // Every node but this one
+    private void broadcast(ClusterFrame frame) {
+        for (String node : membership.getNodeIds()) {
+            if (!node.equals(nodeId)) {
+                transport.send(node, frame);
+            }
+        }
+    }
+
+    private int deliverToLocalMembers(long senderId, long[] members, RelayFrame frame) {
+        int delivered = 0;
+        for (long memberId : members) {
+            if (memberId == senderId) {
+                continue;
+            }
+            OutboundSession[] memberSessions = sessionRegistry.get(memberId);
+            for (OutboundSession session : memberSessions) {
+                session.send(frame);
+            }
+            if (memberSessions.length > 0) {
+                delivered++;
+            }
+        }
+        return delivered;
+    }
+
+    private void onFrame(ClusterFrame frame) {
+        switch (frame.type()) {
+            case RELAY, RELAY_BINARY -> {
+                RelayFrame relay = relayFrame(frame);
+                for (OutboundSession session : sessionRegistry.get(frame.target())) {
+                    session.send(relay);
+                }
+            }
+            case GROUP_RELAY, GROUP_RELAY_BINARY -> {
+                long[] members = groupMembershipCache.getObject().getMembers(frame.target());
+                deliverToLocalMembers(frame.aux(), members, relayFrame(frame));
+            }
+            case INVALIDATE -> {
+                String[] parts = frame.text().split("\0", 2);
+                InvalidationListener listener = invalidationListeners.get(parts[0]);
+                if (listener != null) {
+                    listener.invalidated(parts[1]);
+                } else {
+                    logger.debug("No invalidation listener for topic {} from node {}", parts[0], frame.sourceNode());
+                }
+            }
+            case PRESENCE_CHANGES -> {
+                PresenceListener listener = presenceListener;
+                if (listener != null) {
+                    listener.remoteChanges(frame.sourceNode(), frame.text(), frame.aux() == 1);
+                }
+            }
+            case PRESENCE_SYNC -> {
+                PresenceListener listener = presenceListener;
+                if (listener != null) {
+                    listener.snapshotRequested(frame.sourceNode());
+                }
+            }
+            case PRESENCE_RESET -> nodeRestarted(frame);
+            default -> presence.handle(frame);
+        }
+    }
+
+    // Synchronized with userConnected/userDisconnected so a user who just left is not republished
+    private synchronized void nodeRestarted(ClusterFrame reset) {
+        presence.handle(reset);
+        Set<Long> localUsers = new HashSet<>();
+        sessionRegistry.forEachSession(session -> localUsers.add(session.getUserId()));
+        presence.republishTo(reset.sourceNode(), localUsers);
+    }
+
+    private static RelayFrame relayFrame(ClusterFrame frame) {
+        return frame.type() == ClusterFrame.Type.RELAY_BINARY || frame.type() == ClusterFrame.Type.GROUP_RELAY_BINARY
+                ? RelayFrame.binary(frame.payload())
+                : RelayFrame.text(frame.text());
+    }
+}
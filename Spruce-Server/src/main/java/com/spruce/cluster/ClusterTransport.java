@@ -0,0 +1,19 @@
+package com.spruce.cluster;
+
+import java.util.function.Consumer;
+
+/**
+ * Point-to-point delivery of {@link ClusterFrame}s between server nodes.
+ * Implementations must not block the caller on the network.
+ */
+public interface ClusterTransport {
+
+    /**
+     * Start accepting frames for this node; every received frame is handed to the receiver.
+     */
+    void start(Consumer<ClusterFrame> receiver);
+
+    void send(String nodeId, ClusterFrame frame);
+
+    void stop();
+}
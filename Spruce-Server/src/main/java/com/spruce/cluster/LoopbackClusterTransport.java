@@ -0,0 +1,52 @@
+package com.spruce.cluster;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * In-process transport for running several nodes in one JVM (tests, local experiments).
+ * Nodes find each other through a static hub; each node receives on its own thread so
+ * delivery is asynchronous and ordered per receiving node, like the TCP transport.
+ */
+public class LoopbackClusterTransport implements ClusterTransport {
+
+    private static final Map<String, LoopbackClusterTransport> HUB = new ConcurrentHashMap<>();
+
+    private final String selfId;
+    private volatile Consumer<ClusterFrame> receiver;
+    private volatile ExecutorService inbox;
+
+    public LoopbackClusterTransport(String selfId) {
+        this.selfId = selfId;
+    }
+
+    @Override
+    public void start(Consumer<ClusterFrame> receiver) {
+        this.receiver = receiver;
+        this.inbox = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cluster-loopback-" + selfId);
+            thread.setDaemon(true);
+            return thread;
+        });
+        HUB.put(selfId, this);
+    }
+
+    @Override
+    public void send(String nodeId, ClusterFrame frame) {
+        LoopbackClusterTransport target = HUB.get(nodeId);
+        if (target != null) {
+            target.inbox.execute(() -> target.receiver.accept(frame));
+        }
+    }
+
+    @Override
+    public void stop() {
+        HUB.remove(selfId, this);
+        if (inbox != null) {
+            inbox.shutdown();
+        }
+    }
+}
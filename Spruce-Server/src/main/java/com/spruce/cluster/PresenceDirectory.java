@@ -0,0 +1,149 @@
+package com.spruce.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cluster-wide "which nodes is this user connected to" directory, partitioned by user id.
+ * Each node stores the entries for the users it owns (see {@link ClusterMembership#partitionOwner});
+ * publishes and lookups for other users are sent to the owning node. A node announces a
+ * (re)start with PRESENCE_RESET; the others drop what it published before and publish their
+ * users in its partition to it again.
+ */
+class PresenceDirectory {
+
+    private static final Logger logger = LoggerFactory.getLogger(PresenceDirectory.class);
+
+    private final ClusterMembership membership;
+    private final ClusterTransport transport;
+    private final long lookupTimeoutMs;
+
+    // Entries for users whose partition this node owns: userId -> node ids
+    private final Map<Long, Set<String>> partition = new ConcurrentHashMap<>();
+    private final Map<Long, CompletableFuture<Set<String>>> pendingLookups = new ConcurrentHashMap<>();
+    private final AtomicLong nextRequestId = new AtomicLong();
+
+    PresenceDirectory(ClusterMembership membership, ClusterTransport transport, long lookupTimeoutMs) {
+        this.membership = membership;
+        this.transport = transport;
+        this.lookupTimeoutMs = lookupTimeoutMs;
+    }
+
+    void publish(long userId) {
+        String owner = membership.partitionOwner(userId);
+        if (owner.equals(membership.getSelfId())) {
+            add(userId, owner);
+        } else {
+            transport.send(owner, frame(ClusterFrame.Type.PRESENCE_ADD, userId, 0, null));
+        }
+    }
+
+    void unpublish(long userId) {
+        String owner = membership.partitionOwner(userId);
+        if (owner.equals(membership.getSelfId())) {
+            remove(userId, owner);
+        } else {
+            transport.send(owner, frame(ClusterFrame.Type.PRESENCE_REMOVE, userId, 0, null));
+        }
+    }
+
+    /**
+     * Nodes the user is connected to. Completes with an empty set if the owner does not answer in time.
+     */
+    CompletableFuture<Set<String>> lookup(long userId) {
+        String owner = membership.partitionOwner(userId);
+        if (owner.equals(membership.getSelfId())) {
+            return CompletableFuture.completedFuture(Set.copyOf(partition.getOrDefault(userId, Set.of())));
+        }
+        long requestId = nextRequestId.incrementAndGet();
+        CompletableFuture<Set<String>> reply = new CompletableFuture<>();
+        pendingLookups.put(requestId, reply);
+        transport.send(owner, frame(ClusterFrame.Type.PRESENCE_QUERY, userId, requestId, null));
+        return reply.orTimeout(lookupTimeoutMs, TimeUnit.MILLISECONDS)
+                .exceptionally(e -> Set.of())
+                .whenComplete((nodes, e) -> pendingLookups.remove(requestId));
+    }
+
+    /**
+     * Tell every owner to forget this node's entries, e.g. after a restart left stale ones behind.
+     */
+    void resetOwnEntries() {
+        removeNode(membership.getSelfId());
+        for (String nodeId : membership.getNodeIds()) {
+            if (!nodeId.equals(membership.getSelfId())) {
+                transport.send(nodeId, frame(ClusterFrame.Type.PRESENCE_RESET, 0, 0, null));
+            }
+        }
+    }
+
+    /**
+     * Publish again to a node that (re)started the users it owns among the given local users; its
+     * partition was in memory and started empty.
+     */
+    void republishTo(String nodeId, Collection<Long> localUsers) {
+        int count = 0;
+        for (long userId : localUsers) {
+            if (membership.partitionOwner(userId).equals(nodeId)) {
+                transport.send(nodeId, frame(ClusterFrame.Type.PRESENCE_ADD, userId, 0, null));
+                count++;
+            }
+        }
+        logger.info("Node {} restarted; republished {} local users it owns", nodeId, count);
+    }
+
+    void handle(ClusterFrame frame) {
+        switch (frame.type()) {
+            case PRESENCE_ADD -> add(frame.target(), frame.sourceNode());
+            case PRESENCE_REMOVE -> remove(frame.target(), frame.sourceNode());
+            case PRESENCE_RESET -> removeNode(frame.sourceNode());
+            case PRESENCE_QUERY -> {
+                Set<String> nodes = partition.getOrDefault(frame.target(), Set.of());
+                transport.send(frame.sourceNode(),
+                        frame(ClusterFrame.Type.PRESENCE_REPLY, frame.target(), frame.aux(), String.join(",", nodes)));
+            }
+            case PRESENCE_REPLY -> {
+                CompletableFuture<Set<String>> reply = pendingLookups.get(frame.aux());
+                if (reply != null) {
+                    String nodes = frame.text();
+                    reply.complete(nodes == null || nodes.isEmpty()
+                            ? Set.of()
+                            : Set.of(nodes.split(",")));
+                }
+            }
+            default -> throw new IllegalArgumentException("Not a presence frame: " + frame.type());
+        }
+    }
+
+    private void add(long userId, String nodeId) {
+        partition.compute(userId, (id, nodes) -> {
+            Set<String> updated = nodes == null ? ConcurrentHashMap.newKeySet() : nodes;
+            updated.add(nodeId);
+            return updated;
+        });
+    }
+
+    private void remove(long userId, String nodeId) {
+        partition.computeIfPresent(userId, (id, nodes) -> {
+            nodes.remove(nodeId);
+            return nodes.isEmpty() ? null : nodes;
+        });
+    }
+
+    private void removeNode(String nodeId) {
+        for (Long userId : partition.keySet()) {
+            remove(userId, nodeId);
+        }
+    }
+
+    private ClusterFrame frame(ClusterFrame.Type type, long target, long aux, String payload) {
+        return new ClusterFrame(type, membership.getSelfId(), target, aux, payload);
+    }
+}
@@ -0,0 +1,276 @@
+package com.spruce.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * TCP transport between nodes. Each node listens on its configured port; outbound frames go
+ * over one lazily opened connection per peer, written by a dedicated sender thread with a
+ * bounded queue so relaying never blocks on a slow or unreachable peer (excess frames are dropped).
+ *
+ * The listener only binds to a loopback or private address. Every connection starts with a
+ * challenge: the listener sends a random nonce and the connecting node answers with its node id
+ * and an HMAC-SHA256 of both under the shared cluster secret. Connections that fail it are
+ * closed before any frame is read, and frames on an authenticated connection must come from
+ * the node that authenticated it.
+ */
+public class TcpClusterTransport implements ClusterTransport {
+
+    private static final Logger logger = LoggerFactory.getLogger(TcpClusterTransport.class);
+
+    private static final int PEER_QUEUE_CAPACITY = 10000;
+    private static final int CONNECT_TIMEOUT_MS = 2000;
+    private static final int HANDSHAKE_TIMEOUT_MS = 2000;
+    private static final int NONCE_BYTES = 32;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    private final ClusterMembership membership;
+    private final SecretKeySpec secret;
+    private final String bindAddress;
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, Peer> peers = new ConcurrentHashMap<>();
+    private volatile ServerSocket serverSocket;
+    private volatile boolean running;
+
+    /**
+     * @param bindAddress address to listen on; blank for this node's host in the node list
+     */
+    public TcpClusterTransport(ClusterMembership membership, String secret, String bindAddress) {
+        if (secret == null || secret.isBlank()) {
+            throw new IllegalStateException("app.cluster.secret must be set for the tcp cluster transport");
+        }
+        this.membership = membership;
+        this.secret = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), MAC_ALGORITHM);
+        this.bindAddress = bindAddress;
+    }
+
+    @Override
+    public void start(Consumer<ClusterFrame> receiver) {
+        InetSocketAddress self = membership.addressOf(membership.getSelfId());
+        InetSocketAddress listen = new InetSocketAddress(
+                bindAddress == null || bindAddress.isBlank() ? self.getHostString() : bindAddress, self.getPort());
+        if (listen.isUnresolved() || !isPrivate(listen.getAddress())) {
+            throw new IllegalStateException("Cluster transport must listen on a loopback or private address, not " + listen
+                    + "; set app.cluster.bind-address");
+        }
+        try {
+            serverSocket = new ServerSocket();
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(listen);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot listen for cluster traffic on " + listen, e);
+        }
+        running = true;
+        Thread acceptor = new Thread(() -> acceptLoop(receiver), "cluster-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        logger.info("Cluster transport listening on {}", listen);
+    }
+
+    // Wildcard and public addresses are refused; fc00::/7 is the IPv6 counterpart of site-local
+    static boolean isPrivate(InetAddress address) {
+        return address.isLoopbackAddress() || address.isSiteLocalAddress() || address.isLinkLocalAddress()
+                || address instanceof Inet6Address && (address.getAddress()[0] & 0xfe) == 0xfc;
+    }
+
+    @Override
+    public void send(String nodeId, ClusterFrame frame) {
+        Peer peer = peers.computeIfAbsent(nodeId, Peer::new);
+        try {
+            peer.sender.execute(() -> peer.write(frame));
+        } catch (RejectedExecutionException e) {
+            logger.warn("Cluster send queue to {} is full, dropping {} frame", nodeId, frame.type());
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            logger.debug("Error closing cluster server socket", e);
+        }
+        peers.values().forEach(Peer::close);
+    }
+
+    private void acceptLoop(Consumer<ClusterFrame> receiver) {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Thread reader = new Thread(() -> readLoop(socket, receiver), "cluster-read-" + socket.getPort());
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (running) {
+                    logger.warn("Error accepting cluster connection", e);
+                }
+            }
+        }
+    }
+
+    private void readLoop(Socket socket, Consumer<ClusterFrame> receiver) {
+        try (socket; DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            String peer = authenticate(socket, in);
+            if (peer == null) {
+                logger.warn("Rejected cluster connection from {}: failed authentication", socket.getRemoteSocketAddress());
+                return;
+            }
+            while (running) {
+                ClusterFrame frame = ClusterFrame.readFrom(in);
+                if (!peer.equals(frame.sourceNode())) {
+                    logger.warn("Closing cluster connection from {}: frame claims to come from {}", peer, frame.sourceNode());
+                    return;
+                }
+                try {
+                    receiver.accept(frame);
+                } catch (Exception e) {
+                    logger.error("Error handling cluster frame {} from {}", frame.type(), frame.sourceNode(), e);
+                }
+            }
+        } catch (EOFException e) {
+            logger.debug("Cluster peer closed connection");
+        } catch (IOException e) {
+            if (running) {
+                logger.warn("Cluster connection lost", e);
+            }
+        }
+    }
+
+    /**
+     * Challenge the connecting node. Returns its node id, or null if it did not prove it holds the secret.
+     */
+    private String authenticate(Socket socket, DataInputStream in) throws IOException {
+        byte[] nonce = new byte[NONCE_BYTES];
+        random.nextBytes(nonce);
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+        OutputStream out = socket.getOutputStream();
+        out.write(nonce);
+        out.flush();
+        String nodeId = in.readUTF();
+        byte[] mac = new byte[NONCE_BYTES];
+        in.readFully(mac);
+        socket.setSoTimeout(0);
+        boolean valid = membership.addressOf(nodeId) != null && !nodeId.equals(membership.getSelfId())
+                && MessageDigest.isEqual(mac, mac(nonce, nodeId));
+        return valid ? nodeId : null;
+    }
+
+    private byte[] mac(byte[] nonce, String nodeId) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(secret);
+            mac.update(nonce);
+            return mac.doFinal(nodeId.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(MAC_ALGORITHM + " unavailable", e);
+        }
+    }
+
+    private final class Peer {
+        final String nodeId;
+        final ThreadPoolExecutor sender;
+        Socket socket;
+        DataOutputStream out;
+
+        Peer(String nodeId) {
+            this.nodeId = nodeId;
+            this.sender = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(PEER_QUEUE_CAPACITY), runnable -> {
+                        Thread thread = new Thread(runnable, "cluster-send-" + nodeId);
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+
+        // Only ever called on this peer's sender thread
+        void write(ClusterFrame frame) {
+            for (int attempt = 0; attempt < 2; attempt++) {
+                try {
+                    if (out == null) {
+                        connect();
+                    }
+                    frame.writeTo(out);
+                    // Batch frames that are already queued behind this one into one flush
+                    if (sender.getQueue().isEmpty()) {
+                        out.flush();
+                    }
+                    return;
+                } catch (IOException e) {
+                    logger.warn("Cluster send to {} failed (attempt {})", nodeId, attempt + 1, e);
+                    closeSocket();
+                }
+            }
+        }
+
+        private void connect() throws IOException {
+            InetSocketAddress address = membership.addressOf(nodeId);
+            if (address == null) {
+                throw new IOException("Unknown cluster node " + nodeId);
+            }
+            Socket connected = new Socket();
+            connected.connect(new InetSocketAddress(address.getHostString(), address.getPort()), CONNECT_TIMEOUT_MS);
+            connected.setTcpNoDelay(true);
+            socket = connected;
+            out = new DataOutputStream(new BufferedOutputStream(connected.getOutputStream()));
+
+            // Answer the listener's challenge before the first frame
+            connected.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+            byte[] nonce = new byte[NONCE_BYTES];
+            new DataInputStream(connected.getInputStream()).readFully(nonce);
+            connected.setSoTimeout(0);
+            out.writeUTF(membership.getSelfId());
+            out.write(mac(nonce, membership.getSelfId()));
+        }
+
+        private void closeSocket() {
+            try {
+                if (socket != null) {
+                    socket.close();
+                }
+            } catch (IOException e) {
+                logger.debug("Error closing cluster connection to {}", nodeId, e);
+            }
+            socket = null;
+            out = null;
+        }
+
+        void close() {
+            try {
+                sender.execute(this::closeSocket);
+            } catch (RejectedExecutionException e) {
+                logger.debug("Cluster send queue to {} full at shutdown", nodeId);
+            }
+            sender.shutdown();
+        }
+    }
+}
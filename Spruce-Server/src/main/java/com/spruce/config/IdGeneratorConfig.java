@@ -0,0 +1,19 @@
+package com.spruce.config;
+
+import com.spruce.id.SnowflakeIdGenerator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * The message id generator. There is exactly one per server instance, so ids it issues are unique
+ * as long as app.node-id is unique per instance (checked against the node list in cluster mode).
+ */
+@Configuration
+public class IdGeneratorConfig {
+
+    @Bean
+    public SnowflakeIdGenerator messageIdGenerator(@Value("${app.node-id:0}") int nodeId) {
+        return new SnowflakeIdGenerator(nodeId);
+    }
+}
@@ -1,11 +1,13 @@
 package com.spruce.config;
 
+import com.spruce.websocket.BinaryFrameCodec;
 import com.spruce.websocket.SpruceWebSocketHandler;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
 import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
 import org.springframework.web.socket.server.standard.ServletServerContainerFactoryBean;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
 
 @Configuration
 @EnableWebSocket
@@ -19,7 +21,11 @@ public class WebSocketConfig implements WebSocketConfigurer {
 
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        // Clients that offer the binary subprotocol get binary message frames; everyone else stays on JSON
+        DefaultHandshakeHandler handshakeHandler = new DefaultHandshakeHandler();
+        handshakeHandler.setSupportedProtocols(BinaryFrameCodec.SUBPROTOCOL);
         registry.addHandler(webSocketHandler, "/ws")
+                .setHandshakeHandler(handshakeHandler)
                 .setAllowedOrigins("http://localhost:5173", "http://localhost:3000");
     }
     
@@ -1,12 +1,17 @@
 package com.spruce.controller;
 
+import com.spruce.model.AuthenticatedUser;
 import com.spruce.model.User;
 import com.spruce.service.AuthService;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api/auth")
@@ -20,32 +25,46 @@ public class AuthController {
     }
 
     @PostMapping("/register")
-    public ResponseEntity<Map<String, Object>> register(@RequestBody Map<String, Object> request) {
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> register(@RequestBody Map<String, Object> request) {
         try {
             String username = (String) request.get("username");
             String password = (String) request.get("password");
             @SuppressWarnings("unchecked")
             Map<String, String> publicKeys = (Map<String, String>) request.get("publicKeys");
             
-            Map<String, Object> result = authService.register(username, password, publicKeys);
-            return ResponseEntity.ok(result);
+            return authService.register(username, password, publicKeys)
+                .thenApply(ResponseEntity::ok)
+                .exceptionally(e -> errorResponse(e, 400));
         } catch (Exception e) {
-            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+            return CompletableFuture.completedFuture(errorResponse(e, 400));
         }
     }
 
     @PostMapping("/login")
-    public ResponseEntity<Map<String, Object>> login(@RequestBody Map<String, String> credentials) {
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> login(@RequestBody Map<String, String> credentials) {
         try {
             String username = credentials.get("username");
             String password = credentials.get("password");
             
-            Map<String, Object> result = authService.login(username, password);
-            return ResponseEntity.ok(result);
+            return authService.login(username, password)
+                .thenApply(ResponseEntity::ok)
+                .exceptionally(e -> errorResponse(e, 401));
         } catch (Exception e) {
-            return ResponseEntity.status(401).body(Map.of("message", e.getMessage()));
+            return CompletableFuture.completedFuture(errorResponse(e, 401));
         }
     }
+
+    // 429 when the password hashing queue is full, otherwise the endpoint's own failure status
+    private static ResponseEntity<Map<String, Object>> errorResponse(Throwable e, int status) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof RejectedExecutionException) {
+            return ResponseEntity.status(429)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(Map.of("message", "Too many requests, retry shortly"));
+        }
+        String message = cause.getMessage() != null ? cause.getMessage() : "Request failed";
+        return ResponseEntity.status(status).body(Map.of("message", message));
+    }
     
     @GetMapping("/me")
     public ResponseEntity<Map<String, Object>> getCurrentUser(Authentication authentication) {
@@ -53,7 +72,11 @@ public class AuthController {
             return ResponseEntity.status(401).body(Map.of("message", "Not authenticated"));
         }
         
-        User user = (User) authentication.getPrincipal();
+        AuthenticatedUser principal = (AuthenticatedUser) authentication.getPrincipal();
+        User user = authService.getCurrentUser(principal.id());
+        if (user == null) {
+            return ResponseEntity.status(401).body(Map.of("message", "Not authenticated"));
+        }
         Map<String, Object> userData = Map.of(
             "id", user.getId(),
             "username", user.getUsername(),
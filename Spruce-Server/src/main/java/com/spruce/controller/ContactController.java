@@ -1,68 +1,135 @@
 package com.spruce.controller;
 
+import com.spruce.model.AuthenticatedUser;
 import com.spruce.model.Contact;
-import com.spruce.model.User;
-import com.spruce.repository.ContactRepository;
+import com.spruce.model.UserSummary;
 import com.spruce.repository.UserRepository;
+import com.spruce.service.ContactGraph;
+import com.spruce.service.PresenceService;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Set;
 
 @RestController
 @RequestMapping("/api/contacts")
 @CrossOrigin(origins = {"http://localhost:5173", "http://localhost:3000"})
 public class ContactController {
     
-    private final ContactRepository contactRepository;
+    private static final int MAX_BULK_PRESENCE = 500;
+    
+    private final ContactGraph contactGraph;
     private final UserRepository userRepository;
+    private final PresenceService presenceService;
 
-    public ContactController(ContactRepository contactRepository, UserRepository userRepository) {
-        this.contactRepository = contactRepository;
+    public ContactController(ContactGraph contactGraph, UserRepository userRepository,
+                             PresenceService presenceService) {
+        this.contactGraph = contactGraph;
         this.userRepository = userRepository;
+        this.presenceService = presenceService;
     }
 
     @GetMapping
     public ResponseEntity<List<Map<String, Object>>> getContacts(Authentication authentication) {
-        User currentUser = (User) authentication.getPrincipal();
+        AuthenticatedUser currentUser = (AuthenticatedUser) authentication.getPrincipal();
         
-        // Simplified: Return all users except current user
-        // In production, filter by accepted contacts only
-        List<User> allUsers = userRepository.findAll().stream()
-            .filter(u -> !u.getId().equals(currentUser.getId()))
-            .collect(Collectors.toList());
+        long[] contactIds = contactGraph.contactsOf(currentUser.id());
+        if (contactIds.length == 0) {
+            return ResponseEntity.ok(List.of());
+        }
+        List<Long> ids = new ArrayList<>(contactIds.length);
+        for (long id : contactIds) {
+            ids.add(id);
+        }
         
-        List<Map<String, Object>> contactList = allUsers.stream()
-            .map(user -> {
-                Map<String, Object> userMap = new HashMap<>();
-                userMap.put("id", user.getId());
-                userMap.put("username", user.getUsername());
-                userMap.put("status", user.getStatus() != null ? user.getStatus() : "offline");
-                return userMap;
-            })
-            .collect(Collectors.toList());
+        List<Map<String, Object>> contactList = new ArrayList<>(contactIds.length);
+        for (UserSummary user : userRepository.findSummariesByIdIn(ids)) {
+            Map<String, Object> userMap = new HashMap<>();
+            userMap.put("id", user.id());
+            userMap.put("username", user.username());
+            userMap.put("status", presenceService.isOnline(user.id()) ? "online" : "offline");
+            contactList.add(userMap);
+        }
         
         return ResponseEntity.ok(contactList);
     }
 
-    @PostMapping("/add/{userId}")
-    public ResponseEntity<Contact> addContact(Authentication authentication, @PathVariable Long userId) {
-        User currentUser = (User) authentication.getPrincipal();
+    /**
+     * Live presence of up to 500 users. Only the caller's contacts are reported; other ids come back under "hidden".
+     */
+    @PostMapping("/presence")
+    public ResponseEntity<Map<String, Object>> getPresence(Authentication authentication,
+                                                           @RequestBody Map<String, Object> request) {
+        AuthenticatedUser currentUser = (AuthenticatedUser) authentication.getPrincipal();
+        if (!(request.get("ids") instanceof List<?> rawIds)) {
+            return ResponseEntity.badRequest().body(Map.of("error", "ids is required"));
+        }
+        if (rawIds.size() > MAX_BULK_PRESENCE) {
+            return ResponseEntity.badRequest().body(Map.of("error", "At most " + MAX_BULK_PRESENCE + " ids per request"));
+        }
+        
+        Set<Long> ids = new LinkedHashSet<>();
+        for (Object rawId : rawIds) {
+            Long parsed = toId(rawId);
+            if (parsed == null) {
+                return ResponseEntity.badRequest().body(Map.of("error", "ids must be numbers"));
+            }
+            ids.add(parsed);
+        }
         
-        Contact contact = new Contact();
-        contact.setUserId(currentUser.getId());
-        contact.setContactId(userId);
-        contact.setStatus("accepted"); // Auto-accept for simplicity
+        List<Long> online = new ArrayList<>();
+        List<Long> offline = new ArrayList<>();
+        List<Long> hidden = new ArrayList<>();
+        for (long id : ids) {
+            if (!contactGraph.areContacts(currentUser.id(), id)) {
+                hidden.add(id);
+            } else if (presenceService.isOnline(id)) {
+                online.add(id);
+            } else {
+                offline.add(id);
+            }
+        }
         
-        return ResponseEntity.ok(contactRepository.save(contact));
+        Map<String, Object> response = new HashMap<>();
+        response.put("online", online);
+        response.put("offline", offline);
+        response.put("hidden", hidden);
+        return ResponseEntity.ok(response);
     }
-}
-
-
-
 
+    @PostMapping("/add/{userId}")
+    public ResponseEntity<?> addContact(Authentication authentication, @PathVariable Long userId) {
+        AuthenticatedUser currentUser = (AuthenticatedUser) authentication.getPrincipal();
+        if (userId.equals(currentUser.id())) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Cannot add yourself as a contact"));
+        }
+        if (!userRepository.existsById(userId)) {
+            return ResponseEntity.notFound().build();
+        }
+        
+        Contact contact = contactGraph.connect(currentUser.id(), userId);
+        contactGraph.contactAdded(currentUser.id(), userId);
+        return ResponseEntity.ok(contact);
+    }
 
+    // A JSON number or numeric string; null for anything else
+    private static Long toId(Object raw) {
+        if (raw instanceof Number number) {
+            return number.longValue();
+        }
+        if (raw instanceof String text) {
+            try {
+                return Long.valueOf(text);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+}
@@ -1,13 +1,23 @@
 package com.spruce.controller;
 
+import com.spruce.model.AuthenticatedUser;
 import com.spruce.model.Group;
-import com.spruce.model.User;
+import com.spruce.model.UserSummary;
+import com.spruce.repository.GroupMemberRepository;
 import com.spruce.repository.GroupRepository;
+import com.spruce.repository.UserRepository;
+import com.spruce.service.GroupMembershipCache;
+import com.spruce.service.GroupService;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @RestController
@@ -15,25 +25,41 @@ import java.util.Optional;
 @CrossOrigin(origins = {"http://localhost:5173", "http://localhost:3000"})
 public class GroupController {
     
+    private static final int DEFAULT_MEMBER_PAGE = 100;
+    private static final int MAX_MEMBER_PAGE = 500;
+    
     private final GroupRepository groupRepository;
+    private final GroupMemberRepository groupMemberRepository;
+    private final UserRepository userRepository;
+    private final GroupService groupService;
+    private final GroupMembershipCache groupMembershipCache;
 
-    public GroupController(GroupRepository groupRepository) {
+    public GroupController(GroupRepository groupRepository, GroupMemberRepository groupMemberRepository,
+                           UserRepository userRepository, GroupService groupService, GroupMembershipCache groupMembershipCache) {
         this.groupRepository = groupRepository;
+        this.groupMemberRepository = groupMemberRepository;
+        this.userRepository = userRepository;
+        this.groupService = groupService;
+        this.groupMembershipCache = groupMembershipCache;
     }
 
     @PostMapping("/create")
     public ResponseEntity<Group> createGroup(Authentication authentication, @RequestBody Group group) {
-        User user = (User) authentication.getPrincipal();
-        group.setOwnerId(user.getId());
-        group.getMemberIds().add(user.getId());
-        Group savedGroup = groupRepository.save(group);
+        AuthenticatedUser user = (AuthenticatedUser) authentication.getPrincipal();
+        group.setId(null);
+        group.setOwnerId(user.id());
+        Group savedGroup = groupService.create(group);
+        groupMembershipCache.membershipChanged(savedGroup.getId());
         return ResponseEntity.ok(savedGroup);
     }
 
+    /**
+     * Groups the caller is a member of, including ones they own.
+     */
     @GetMapping
     public ResponseEntity<List<Group>> getMyGroups(Authentication authentication) {
-        User user = (User) authentication.getPrincipal();
-        List<Group> groups = groupRepository.findByOwnerId(user.getId());
+        AuthenticatedUser user = (AuthenticatedUser) authentication.getPrincipal();
+        List<Group> groups = groupRepository.findByMember(user.id());
         return ResponseEntity.ok(groups);
     }
 
@@ -43,15 +69,45 @@ public class GroupController {
         return group.map(ResponseEntity::ok).orElse(ResponseEntity.notFound().build());
     }
 
+    /**
+     * Page of members ordered by user id. Pass the returned nextCursor as after for the next page.
+     */
+    @GetMapping("/{id}/members")
+    public ResponseEntity<Map<String, Object>> getMembers(@PathVariable Long id,
+                                                          @RequestParam(required = false) Long after,
+                                                          @RequestParam(required = false) Integer limit) {
+        if (!groupRepository.existsById(id)) {
+            return ResponseEntity.notFound().build();
+        }
+        int pageSize = limit == null || limit <= 0 ? DEFAULT_MEMBER_PAGE : Math.min(limit, MAX_MEMBER_PAGE);
+        List<Long> ids = groupMemberRepository.findMemberPage(id, after != null ? after : 0L, PageRequest.of(0, pageSize + 1));
+        boolean hasMore = ids.size() > pageSize;
+        if (hasMore) {
+            ids = ids.subList(0, pageSize);
+        }
+        
+        List<UserSummary> members = ids.isEmpty() ? List.of() : new ArrayList<>(userRepository.findSummariesByIdIn(ids));
+        if (!members.isEmpty()) {
+            members.sort(Comparator.comparing(UserSummary::id));
+        }
+        
+        Map<String, Object> response = new HashMap<>();
+        response.put("members", members);
+        response.put("nextCursor", hasMore ? ids.get(ids.size() - 1) : null);
+        response.put("hasMore", hasMore);
+        return ResponseEntity.ok(response);
+    }
+
     @PostMapping("/{id}/join")
     public ResponseEntity<Group> joinGroup(Authentication authentication, @PathVariable Long id) {
-        User user = (User) authentication.getPrincipal();
+        AuthenticatedUser user = (AuthenticatedUser) authentication.getPrincipal();
         Optional<Group> groupOpt = groupRepository.findById(id);
         
         if (groupOpt.isPresent()) {
-            Group group = groupOpt.get();
-            group.getMemberIds().add(user.getId());
-            return ResponseEntity.ok(groupRepository.save(group));
+            if (groupService.join(id, user.id())) {
+                groupMembershipCache.memberChanged(id, user.id(), true);
+            }
+            return ResponseEntity.ok(groupOpt.get());
         }
         
         return ResponseEntity.notFound().build();
@@ -59,21 +115,15 @@ public class GroupController {
 
     @PostMapping("/{id}/leave")
     public ResponseEntity<Void> leaveGroup(Authentication authentication, @PathVariable Long id) {
-        User user = (User) authentication.getPrincipal();
-        Optional<Group> groupOpt = groupRepository.findById(id);
+        AuthenticatedUser user = (AuthenticatedUser) authentication.getPrincipal();
         
-        if (groupOpt.isPresent()) {
-            Group group = groupOpt.get();
-            group.getMemberIds().remove(user.getId());
-            groupRepository.save(group);
+        if (groupRepository.existsById(id)) {
+            if (groupService.leave(id, user.id())) {
+                groupMembershipCache.memberChanged(id, user.id(), false);
+            }
             return ResponseEntity.ok().build();
         }
         
         return ResponseEntity.notFound().build();
     }
 }
-
-
-
-
-
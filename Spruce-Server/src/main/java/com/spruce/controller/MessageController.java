@@ -1,52 +1,90 @@
 package com.spruce.controller;
 
+import com.spruce.model.AuthenticatedUser;
 import com.spruce.model.Message;
-import com.spruce.model.User;
-import com.spruce.repository.MessageRepository;
+import com.spruce.service.MessageHistoryService;
+import com.spruce.service.MessagePersistenceService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.time.Duration;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api/messages")
 @CrossOrigin(origins = {"http://localhost:5173", "http://localhost:3000"})
 public class MessageController {
     
-    private final MessageRepository messageRepository;
+    private static final String EXPORT_TIMEOUT_KEY = MessageController.class.getName() + ".exportTimeout";
 
-    public MessageController(MessageRepository messageRepository) {
-        this.messageRepository = messageRepository;
+    private final MessageHistoryService messageHistoryService;
+    private final MessagePersistenceService messagePersistenceService;
+    private final Duration exportTimeout;
+
+    public MessageController(MessageHistoryService messageHistoryService, MessagePersistenceService messagePersistenceService,
+                             @Value("${app.messages.export.timeout:30m}") Duration exportTimeout) {
+        this.messageHistoryService = messageHistoryService;
+        this.messagePersistenceService = messagePersistenceService;
+        this.exportTimeout = exportTimeout;
     }
 
     @GetMapping("/history/{peerId}")
-    public ResponseEntity<List<Map<String, Object>>> getHistory(Authentication authentication, @PathVariable Long peerId) {
-        User currentUser = (User) authentication.getPrincipal();
-        List<Message> messages = messageRepository.findConversation(currentUser.getId(), peerId);
+    public ResponseEntity<Map<String, Object>> getHistory(Authentication authentication, @PathVariable Long peerId,
+                                                          @RequestParam(required = false) Long before,
+                                                          @RequestParam(required = false) Long after,
+                                                          @RequestParam(required = false) Integer limit) {
+        AuthenticatedUser currentUser = (AuthenticatedUser) authentication.getPrincipal();
+        MessageHistoryService.Page page = messageHistoryService.getConversation(currentUser.id(), peerId, before, after, limit);
         
-        List<Map<String, Object>> messageList = messages.stream()
-            .map(msg -> Map.<String, Object>of(
-                "id", msg.getId(),
-                "senderId", msg.getSenderId(),
-                "receiverId", msg.getReceiverId(),
-                "ciphertext", msg.getCiphertext() != null ? msg.getCiphertext() : "",
-                "iv", msg.getIv() != null ? msg.getIv() : "",
-                "ts", msg.getTimestamp() != null ? msg.getTimestamp().toEpochSecond(java.time.ZoneOffset.UTC) * 1000 : System.currentTimeMillis()
-            ))
+        List<Map<String, Object>> messageList = page.messages().stream()
+            .map(MessageController::toHistoryEntry)
             .toList();
         
-        return ResponseEntity.ok(messageList);
+        return ResponseEntity.ok(pageBody(messageList, page));
+    }
+
+    @GetMapping(value = "/export/{peerId}", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> exportHistory(Authentication authentication, @PathVariable Long peerId,
+                                                               HttpServletRequest request) {
+        AuthenticatedUser currentUser = (AuthenticatedUser) authentication.getPrincipal();
+        Long userId = currentUser.id();
+        
+        // The stream runs as this request's async task; raise its timeout before the task starts
+        WebAsyncUtils.getAsyncManager(request).registerCallableInterceptor(EXPORT_TIMEOUT_KEY, new CallableProcessingInterceptor() {
+            @Override
+            public <T> void beforeConcurrentHandling(NativeWebRequest webRequest, Callable<T> task) {
+                ((AsyncWebRequest) webRequest).setTimeout(exportTimeout.toMillis());
+            }
+        });
+        StreamingResponseBody body = out -> messageHistoryService.exportConversation(userId, peerId, out);
+        return ResponseEntity.ok()
+            .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"conversation-" + peerId + ".ndjson\"")
+            .contentType(MediaType.parseMediaType("application/x-ndjson"))
+            .body(body);
     }
 
     @PostMapping("/send")
-    public ResponseEntity<Map<String, Object>> sendMessage(Authentication authentication, @RequestBody Map<String, Object> request) {
-        User currentUser = (User) authentication.getPrincipal();
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> sendMessage(Authentication authentication, @RequestBody Map<String, Object> request) {
+        AuthenticatedUser currentUser = (AuthenticatedUser) authentication.getPrincipal();
         
         Object receiverIdObj = request.get("receiverId");
         if (receiverIdObj == null) {
-            return ResponseEntity.badRequest().body(Map.of("error", "receiverId is required"));
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(Map.of("error", "receiverId is required")));
         }
         
         Long receiverId;
@@ -60,38 +98,68 @@ public class MessageController {
         String iv = (String) request.get("iv");
         
         if (ciphertext == null || ciphertext.isEmpty()) {
-            return ResponseEntity.badRequest().body(Map.of("error", "ciphertext is required"));
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(Map.of("error", "ciphertext is required")));
+        }
+        if (!Message.isStorable(ciphertext, iv)) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(
+                Map.of("error", "ciphertext must be base64 and iv base64 of " + Message.IV_BYTES + " bytes")));
         }
         
         Message message = new Message();
-        message.setSenderId(currentUser.getId());
+        message.setSenderId(currentUser.id());
         message.setReceiverId(receiverId);
         message.setCiphertext(ciphertext);
         message.setIv(iv);
         
-        Message saved = messageRepository.save(message);
-        
-        return ResponseEntity.ok(Map.of(
-            "id", saved.getId(),
-            "success", true
-        ));
+        // Same write-behind pipeline as the WebSocket relay; the response completes once the batch commits
+        return messagePersistenceService.submit(message)
+            .thenApply(saved -> ResponseEntity.ok(Map.<String, Object>of(
+                "id", saved.getId(),
+                "success", true
+            )))
+            .exceptionally(e -> {
+                if (e.getCause() instanceof RejectedExecutionException) {
+                    return ResponseEntity.status(503).body(Map.of("error", "Server busy, retry later"));
+                }
+                return ResponseEntity.internalServerError().body(Map.of("error", "Message could not be stored"));
+            });
     }
 
     @GetMapping("/conversation/{userId}")
-    public ResponseEntity<List<Message>> getConversation(Authentication authentication, @PathVariable Long userId) {
-        User currentUser = (User) authentication.getPrincipal();
-        List<Message> messages = messageRepository.findConversation(currentUser.getId(), userId);
-        return ResponseEntity.ok(messages);
+    public ResponseEntity<Map<String, Object>> getConversation(Authentication authentication, @PathVariable Long userId,
+                                                               @RequestParam(required = false) Long before,
+                                                               @RequestParam(required = false) Long after,
+                                                               @RequestParam(required = false) Integer limit) {
+        AuthenticatedUser currentUser = (AuthenticatedUser) authentication.getPrincipal();
+        MessageHistoryService.Page page = messageHistoryService.getConversation(currentUser.id(), userId, before, after, limit);
+        return ResponseEntity.ok(pageBody(page.messages(), page));
     }
 
     @GetMapping("/group/{groupId}")
-    public ResponseEntity<List<Message>> getGroupMessages(@PathVariable Long groupId) {
-        List<Message> messages = messageRepository.findByGroupId(groupId);
-        return ResponseEntity.ok(messages);
+    public ResponseEntity<Map<String, Object>> getGroupMessages(@PathVariable Long groupId,
+                                                                @RequestParam(required = false) Long before,
+                                                                @RequestParam(required = false) Long after,
+                                                                @RequestParam(required = false) Integer limit) {
+        MessageHistoryService.Page page = messageHistoryService.getGroupMessages(groupId, before, after, limit);
+        return ResponseEntity.ok(pageBody(page.messages(), page));
     }
-}
-
-
-
 
+    private static Map<String, Object> toHistoryEntry(Message msg) {
+        return Map.of(
+            "id", msg.getId(),
+            "senderId", msg.getSenderId(),
+            "receiverId", msg.getReceiverId(),
+            "ciphertext", msg.getCiphertext() != null ? msg.getCiphertext() : "",
+            "iv", msg.getIv() != null ? msg.getIv() : "",
+            "ts", msg.getTimestamp() != null ? msg.getTimestamp().toEpochSecond(java.time.ZoneOffset.UTC) * 1000 : System.currentTimeMillis()
+        );
+    }
 
+    private static Map<String, Object> pageBody(List<?> messages, MessageHistoryService.Page page) {
+        Map<String, Object> body = new HashMap<>();
+        body.put("messages", messages);
+        body.put("nextCursor", page.nextCursor());
+        body.put("hasMore", page.hasMore());
+        return body;
+    }
+}
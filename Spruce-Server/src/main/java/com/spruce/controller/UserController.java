@@ -1,106 +1,221 @@
 package com.spruce.controller;
 
+import com.spruce.model.AuthenticatedUser;
 import com.spruce.model.User;
+import com.spruce.model.UserKeys;
+import com.spruce.model.UserProfile;
+import com.spruce.model.UserPublicKeys;
+import com.spruce.model.UserSummary;
+import com.spruce.service.AuthService;
+import com.spruce.service.KeyDirectory;
+import com.spruce.service.UserSearchIndex;
 import com.spruce.service.UserService;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 @RestController
 @RequestMapping("/api/users")
 @CrossOrigin(origins = {"http://localhost:5173", "http://localhost:3000"})
 public class UserController {
     
+    private static final int MAX_BULK_KEYS = 500;
+    
     private final UserService userService;
+    private final AuthService authService;
+    private final KeyDirectory keyDirectory;
 
-    public UserController(UserService userService) {
+    public UserController(UserService userService, AuthService authService, KeyDirectory keyDirectory) {
         this.userService = userService;
+        this.authService = authService;
+        this.keyDirectory = keyDirectory;
     }
 
+    /**
+     * Public keys of one user. The ETag is the key version, so a client that already holds
+     * the current keys gets 304 Not Modified.
+     */
     @GetMapping("/{id}/keys")
-    public ResponseEntity<Map<String, String>> getUserKeys(@PathVariable Long id) {
-        Optional<User> userOpt = userService.findById(id);
-        if (userOpt.isEmpty()) {
+    public ResponseEntity<Map<String, Object>> getUserKeys(@PathVariable Long id, WebRequest request) {
+        Optional<UserKeys> keysOpt = keyDirectory.get(id);
+        if (keysOpt.isEmpty()) {
             return ResponseEntity.notFound().build();
         }
         
-        User user = userOpt.get();
-        Map<String, String> keys = new HashMap<>();
-        keys.put("perm_pub_x25519", user.getPermPubX25519() != null ? user.getPermPubX25519() : "");
-        keys.put("kyber_pub", user.getKyberPub() != null ? user.getKyberPub() : "");
-        keys.put("dilithium_pub", user.getDilithiumPub() != null ? user.getDilithiumPub() : "");
+        UserKeys keys = keysOpt.get();
+        String etag = "\"" + keys.version() + "\"";
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        return ResponseEntity.ok().eTag(etag).body(toKeysResponse(keys));
+    }
+
+    /**
+     * Public keys of many users in one round trip, e.g. a whole contact list.
+     * Body: {"ids": [1, 2, 3], "known": {"1": 4}}. Users whose version in "known" is current are
+     * listed under "unchanged" instead of being sent again; unknown ids are listed under "missing".
+     */
+    @PostMapping("/keys")
+    public ResponseEntity<Map<String, Object>> getUserKeysBulk(@RequestBody Map<String, Object> request) {
+        if (!(request.get("ids") instanceof List<?> rawIds)) {
+            return ResponseEntity.badRequest().body(Map.of("error", "ids is required"));
+        }
+        if (rawIds.size() > MAX_BULK_KEYS) {
+            return ResponseEntity.badRequest().body(Map.of("error", "At most " + MAX_BULK_KEYS + " ids per request"));
+        }
+        Set<Long> ids = new LinkedHashSet<>();
+        for (Object id : rawIds) {
+            Long parsed = toId(id);
+            if (parsed == null) {
+                return ResponseEntity.badRequest().body(Map.of("error", "ids must be numbers"));
+            }
+            ids.add(parsed);
+        }
+        Map<?, ?> known = request.get("known") instanceof Map<?, ?> map ? map : Map.of();
+        
+        Map<Long, UserKeys> found = keyDirectory.getAll(ids);
+        List<Map<String, Object>> keys = new ArrayList<>();
+        List<Long> unchanged = new ArrayList<>();
+        List<Long> missing = new ArrayList<>();
+        for (Long id : ids) {
+            UserKeys userKeys = found.get(id);
+            if (userKeys == null) {
+                missing.add(id);
+            } else if (known.get(id.toString()) instanceof Number version && version.longValue() == userKeys.version()) {
+                unchanged.add(id);
+            } else {
+                keys.add(toKeysResponse(userKeys));
+            }
+        }
         
-        return ResponseEntity.ok(keys);
+        Map<String, Object> response = new HashMap<>();
+        response.put("keys", keys);
+        response.put("unchanged", unchanged);
+        response.put("missing", missing);
+        return ResponseEntity.ok(response);
     }
 
     @GetMapping("/profile")
-    public ResponseEntity<User> getProfile(Authentication authentication) {
-        User user = (User) authentication.getPrincipal();
-        return ResponseEntity.ok(userService.findById(user.getId()).orElse(null));
+    public ResponseEntity<Map<String, Object>> getProfile(Authentication authentication) {
+        AuthenticatedUser user = (AuthenticatedUser) authentication.getPrincipal();
+        return getUser(user.id());
     }
 
     @GetMapping("/{id}")
-    public ResponseEntity<User> getUser(@PathVariable Long id) {
+    public ResponseEntity<Map<String, Object>> getUser(@PathVariable Long id) {
         Optional<User> user = userService.findById(id);
-        return user.map(ResponseEntity::ok).orElse(ResponseEntity.notFound().build());
+        return user.map(u -> ResponseEntity.ok(toProfileResponse(u, userService.findProfile(id))))
+                   .orElse(ResponseEntity.notFound().build());
     }
 
     @GetMapping("/username/{username}")
-    public ResponseEntity<User> getUserByUsername(@PathVariable String username) {
+    public ResponseEntity<Map<String, Object>> getUserByUsername(@PathVariable String username) {
         Optional<User> user = userService.findByUsername(username);
-        return user.map(ResponseEntity::ok).orElse(ResponseEntity.notFound().build());
+        return user.map(u -> ResponseEntity.ok(toProfileResponse(u, userService.findProfile(u.getId()))))
+                   .orElse(ResponseEntity.notFound().build());
     }
 
     @PutMapping("/profile")
-    public ResponseEntity<User> updateProfile(Authentication authentication, @RequestBody User updatedUser) {
-        User user = (User) authentication.getPrincipal();
-        User currentUser = userService.findById(user.getId()).orElse(null);
+    public ResponseEntity<Map<String, Object>> updateProfile(Authentication authentication, @RequestBody Map<String, String> updates) {
+        AuthenticatedUser user = (AuthenticatedUser) authentication.getPrincipal();
+        User currentUser = userService.findById(user.id()).orElse(null);
         
         if (currentUser != null) {
-            if (updatedUser.getUsername() != null) currentUser.setUsername(updatedUser.getUsername());
-            if (updatedUser.getAvatar() != null) currentUser.setAvatar(updatedUser.getAvatar());
-            if (updatedUser.getBio() != null) currentUser.setBio(updatedUser.getBio());
-            if (updatedUser.getStatus() != null) currentUser.setStatus(updatedUser.getStatus());
+            // The users row is only written when one of its own fields changes
+            if (updates.get("username") != null || updates.get("status") != null) {
+                if (updates.get("username") != null) currentUser.setUsername(updates.get("username"));
+                if (updates.get("status") != null) currentUser.setStatus(updates.get("status"));
+                currentUser = userService.updateUser(currentUser);
+            }
+            UserProfile profile = userService.findProfile(user.id());
+            if (updates.get("avatar") != null || updates.get("bio") != null) {
+                if (updates.get("avatar") != null) profile.setAvatar(updates.get("avatar"));
+                if (updates.get("bio") != null) profile.setBio(updates.get("bio"));
+                profile = userService.updateProfile(profile);
+            }
             
-            return ResponseEntity.ok(userService.updateUser(currentUser));
+            return ResponseEntity.ok(toProfileResponse(currentUser, profile));
         }
         
         return ResponseEntity.notFound().build();
     }
 
+    /**
+     * Publish new public keys. Key rotation also revokes every token the user holds; a fresh
+     * token for the caller is returned in the X-Auth-Token header.
+     */
     @PutMapping("/profile/keys")
-    public ResponseEntity<User> updateKeys(Authentication authentication, @RequestBody Map<String, String> keys) {
-        User user = (User) authentication.getPrincipal();
-        User currentUser = userService.findById(user.getId()).orElse(null);
+    public ResponseEntity<Map<String, Object>> updateKeys(Authentication authentication, @RequestBody Map<String, String> keys) {
+        AuthenticatedUser user = (AuthenticatedUser) authentication.getPrincipal();
+        if (userService.findById(user.id()).isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
         
-        if (currentUser != null) {
-            if (keys.containsKey("perm_pub_x25519")) currentUser.setPermPubX25519(keys.get("perm_pub_x25519"));
-            if (keys.containsKey("kyber_pub")) currentUser.setKyberPub(keys.get("kyber_pub"));
-            if (keys.containsKey("dilithium_pub")) currentUser.setDilithiumPub(keys.get("dilithium_pub"));
-            
-            return ResponseEntity.ok(userService.updateUser(currentUser));
+        if (!UserPublicKeys.isStorable(keys.get("perm_pub_x25519"), true)
+                || !UserPublicKeys.isStorable(keys.get("kyber_pub"), false)
+                || !UserPublicKeys.isStorable(keys.get("dilithium_pub"), false)) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Keys must be base64"));
         }
         
-        return ResponseEntity.notFound().build();
+        UserPublicKeys saved = userService.publishKeys(user.id(), keys);
+        keyDirectory.keysChanged(user.id());
+        String token = authService.revokeTokens(user.id());
+        UserKeys published = new UserKeys(saved.getUserId(), saved.getPermPubX25519(), saved.getKyberPub(),
+                                          saved.getDilithiumPub(), saved.getVersion());
+        return ResponseEntity.ok().header("X-Auth-Token", token).body(toKeysResponse(published));
     }
 
     @GetMapping("/search")
-    public ResponseEntity<List<User>> searchUsers(@RequestParam String q) {
-        List<User> users = userService.searchUsers(q);
+    public ResponseEntity<List<UserSummary>> searchUsers(@RequestParam String q,
+                                                         @RequestParam(required = false) Integer limit) {
+        List<UserSummary> users = userService.searchUsers(q, UserSearchIndex.clampLimit(limit));
         return ResponseEntity.ok(users);
     }
-}
-
-
-
-
-
-
 
+    // A JSON number or numeric string; null for anything else
+    private static Long toId(Object raw) {
+        if (raw instanceof Number number) {
+            return number.longValue();
+        }
+        if (raw instanceof String text) {
+            try {
+                return Long.valueOf(text);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
 
+    private static Map<String, Object> toProfileResponse(User user, UserProfile profile) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("id", user.getId());
+        response.put("username", user.getUsername());
+        response.put("email", user.getEmail());
+        response.put("status", user.getStatus());
+        response.put("avatar", profile.getAvatar());
+        response.put("bio", profile.getBio());
+        response.put("createdAt", user.getCreatedAt());
+        response.put("updatedAt", user.getUpdatedAt());
+        return response;
+    }
 
+    private static Map<String, Object> toKeysResponse(UserKeys keys) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("userId", keys.userId());
+        response.put("perm_pub_x25519", keys.permPubX25519() != null ? keys.permPubX25519() : "");
+        response.put("kyber_pub", keys.kyberPub() != null ? keys.kyberPub() : "");
+        response.put("dilithium_pub", keys.dilithiumPub() != null ? keys.dilithiumPub() : "");
+        response.put("version", keys.version());
+        return response;
+    }
+}
@@ -1,7 +1,6 @@
 package com.spruce.filter;
 
-import com.spruce.model.User;
-import com.spruce.repository.UserRepository;
+import com.spruce.model.AuthenticatedUser;
 import com.spruce.service.JwtService;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
@@ -16,16 +15,14 @@ import java.io.IOException;
 
 /**
  * JWT Authentication Filter - validates JWT tokens and sets authentication context.
- * Uses UserRepository directly to avoid circular dependency with UserService.
+ * The principal is built from the token's claims, so authenticating a request reads no database.
  */
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
     
     private final JwtService jwtService;
-    private final UserRepository userRepository;
 
-    public JwtAuthenticationFilter(JwtService jwtService, UserRepository userRepository) {
+    public JwtAuthenticationFilter(JwtService jwtService) {
         this.jwtService = jwtService;
-        this.userRepository = userRepository;
     }
 
     @Override
@@ -39,30 +36,18 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         }
 
         final String token = authHeader.substring(7);
-        final String username = jwtService.extractUsername(token);
-
-        if (username != null && SecurityContextHolder.getContext().getAuthentication() == null) {
-            var userOpt = userRepository.findByUsername(username);
-            
-            if (userOpt.isPresent() && jwtService.validateToken(token)) {
-                User user = userOpt.get();
-                UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
-                    user, null, null
-                );
-                authToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
-                SecurityContextHolder.getContext().setAuthentication(authToken);
-            }
+        // Signature and expiry are checked once; repeated tokens are answered from the verified-token cache
+        final var verified = jwtService.verify(token);
+
+        if (verified.isPresent() && SecurityContextHolder.getContext().getAuthentication() == null) {
+            AuthenticatedUser user = new AuthenticatedUser(verified.get().userId(), verified.get().username());
+            UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
+                user, null, null
+            );
+            authToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
+            SecurityContextHolder.getContext().setAuthentication(authToken);
         }
         
         chain.doFilter(request, response);
     }
 }
-
-
-
-
-
-
-
-
-
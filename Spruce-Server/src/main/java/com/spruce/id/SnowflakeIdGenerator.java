@@ -0,0 +1,68 @@
+package com.spruce.id;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Time-ordered 64-bit ID generator (Snowflake layout).
+ * An ID is [41 bits ms since 2024-01-01][5 bits node][7 bits sequence], which keeps every ID
+ * at or below 2^53 so the web client can read it as a plain JSON number without rounding.
+ * IDs from one node are strictly increasing, so they double as pagination cursors.
+ */
+public class SnowflakeIdGenerator {
+
+    public static final long EPOCH_MILLIS = 1704067200000L; // 2024-01-01T00:00:00Z
+
+    static final int NODE_BITS = 5;
+    static final int SEQUENCE_BITS = 7;
+    public static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final int TIMESTAMP_SHIFT = NODE_BITS + SEQUENCE_BITS;
+
+    private final long nodeBits;
+    private final LongSupplier clock;
+
+    // Last issued (timestamp << SEQUENCE_BITS | sequence); advanced by CAS, never by locking
+    private final AtomicLong lastState = new AtomicLong();
+
+    public SnowflakeIdGenerator(int nodeId) {
+        this(nodeId, System::currentTimeMillis);
+    }
+
+    SnowflakeIdGenerator(int nodeId, LongSupplier clock) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("Node id must be between 0 and " + MAX_NODE_ID + ": " + nodeId);
+        }
+        this.nodeBits = (long) nodeId << SEQUENCE_BITS;
+        this.clock = clock;
+    }
+
+    public long nextId() {
+        long next;
+        long prev;
+        do {
+            prev = lastState.get();
+            long now = (clock.getAsLong() - EPOCH_MILLIS) << SEQUENCE_BITS;
+            // A sequence overflow (or the clock stepping back) borrows from the next millisecond
+            // instead of spinning, so IDs stay unique and monotonic
+            next = Math.max(now, prev + 1);
+        } while (!lastState.compareAndSet(prev, next));
+
+        long timestamp = next >>> SEQUENCE_BITS;
+        return (timestamp << TIMESTAMP_SHIFT) | nodeBits | (next & SEQUENCE_MASK);
+    }
+
+    /**
+     * Milliseconds since the Unix epoch encoded in an ID.
+     */
+    public static long timestampOf(long id) {
+        return (id >>> TIMESTAMP_SHIFT) + EPOCH_MILLIS;
+    }
+
+    /**
+     * Smallest ID that could have been issued at the given time, for converting a time bound into an ID cursor.
+     */
+    public static long minIdAt(long epochMillis) {
+        return Math.max(0, epochMillis - EPOCH_MILLIS) << TIMESTAMP_SHIFT;
+    }
+}
@@ -0,0 +1,150 @@
+package com.spruce.migration;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts rows written before V4 from their base64 *_b64 text columns to the binary columns,
+ * while the application is serving. Each batch is one short UPDATE over a primary key range, run
+ * in its own transaction and followed by a pause; the range is recorded in backfill_progress, so
+ * a restart carries on from the last finished batch. Rows the database cannot decode (or whose IV
+ * is not 12 bytes) are left as text, still readable, and counted when the job finishes.
+ */
+@Component
+public class BinaryColumnBackfill {
+
+    private static final Logger logger = LoggerFactory.getLogger(BinaryColumnBackfill.class);
+
+    private static final int LOG_EVERY_BATCHES = 100;
+
+    // Assignments run left to right in MySQL, so the text is read before it is cleared. Key
+    // columns use COALESCE because a key published during the backfill is already binary.
+    private static final List<Job> JOBS = List.of(
+        new Job("messages_binary_payload", "messages", "id",
+                "ciphertext = FROM_BASE64(ciphertext_b64), iv = NULLIF(FROM_BASE64(iv_b64), ''), " +
+                "ciphertext_b64 = NULL, iv_b64 = NULL",
+                "ciphertext_b64 IS NOT NULL",
+                "FROM_BASE64(ciphertext_b64) IS NOT NULL " +
+                "AND (iv_b64 IS NULL OR iv_b64 = '' OR LENGTH(FROM_BASE64(iv_b64)) = 12)"),
+        new Job("user_keys_binary", "user_keys", "user_id",
+                "perm_pub_x25519 = COALESCE(perm_pub_x25519, FROM_BASE64(perm_pub_x25519_b64)), " +
+                "kyber_pub = COALESCE(kyber_pub, FROM_BASE64(kyber_pub_b64)), " +
+                "dilithium_pub = COALESCE(dilithium_pub, FROM_BASE64(dilithium_pub_b64)), " +
+                "perm_pub_x25519_b64 = NULL, kyber_pub_b64 = NULL, dilithium_pub_b64 = NULL",
+                "(perm_pub_x25519_b64 IS NOT NULL OR kyber_pub_b64 IS NOT NULL OR dilithium_pub_b64 IS NOT NULL)",
+                "(perm_pub_x25519_b64 IS NULL OR LENGTH(FROM_BASE64(perm_pub_x25519_b64)) <= 64) " +
+                "AND (kyber_pub_b64 IS NULL OR FROM_BASE64(kyber_pub_b64) IS NOT NULL) " +
+                "AND (dilithium_pub_b64 IS NULL OR FROM_BASE64(dilithium_pub_b64) IS NOT NULL)")
+    );
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean enabled;
+    private final int batchSize;
+    private final long pauseMs;
+    private final MeterRegistry meterRegistry;
+
+    private volatile boolean running = true;
+
+    public BinaryColumnBackfill(JdbcTemplate jdbcTemplate,
+                                @Value("${app.db.backfill.enabled:true}") boolean enabled,
+                                @Value("${app.db.backfill.batch-size:1000}") int batchSize,
+                                @Value("${app.db.backfill.pause-ms:20}") long pauseMs,
+                                MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.pauseMs = pauseMs;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        Thread worker = new Thread(this::runAll, "binary-backfill");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+    }
+
+    private void runAll() {
+        for (Job job : JOBS) {
+            try {
+                run(job);
+            } catch (Exception e) {
+                logger.error("Backfill {} stopped; it resumes from its last batch on the next start", job.name(), e);
+            }
+        }
+    }
+
+    private void run(Job job) throws InterruptedException {
+        jdbcTemplate.update("INSERT IGNORE INTO backfill_progress (name, last_key) VALUES (?, 0)", job.name());
+        Map<String, Object> progress = jdbcTemplate.queryForMap(
+                "SELECT last_key, finished_at FROM backfill_progress WHERE name = ?", job.name());
+        if (progress.get("finished_at") != null) {
+            return;
+        }
+        long cursor = ((Number) progress.get("last_key")).longValue();
+        logger.info("Backfill {} starting after {} {}", job.name(), job.key(), cursor);
+
+        Counter rows = Counter.builder("spruce.db.backfill.rows").tag("job", job.name()).register(meterRegistry);
+        String nextUpper = "SELECT MAX(k) FROM (SELECT " + job.key() + " AS k FROM " + job.table() +
+                " WHERE " + job.key() + " > ? ORDER BY " + job.key() + " LIMIT ?) batch";
+        String convert = "UPDATE " + job.table() + " SET " + job.assignments() +
+                " WHERE " + job.key() + " > ? AND " + job.key() + " <= ? AND " + job.pending() + " AND " + job.convertible();
+        long converted = 0;
+        int batches = 0;
+        while (running) {
+            Long upper = jdbcTemplate.queryForObject(nextUpper, Long.class, cursor, batchSize);
+            if (upper == null) {
+                break;
+            }
+            int updated = jdbcTemplate.update(convert, cursor, upper);
+            cursor = upper;
+            jdbcTemplate.update("UPDATE backfill_progress SET last_key = ? WHERE name = ?", cursor, job.name());
+            converted += updated;
+            rows.increment(updated);
+            if (++batches % LOG_EVERY_BATCHES == 0) {
+                logger.info("Backfill {}: {} rows converted, at {} {}", job.name(), converted, job.key(), cursor);
+            }
+            if (pauseMs > 0) {
+                Thread.sleep(pauseMs);
+            }
+        }
+        if (!running) {
+            return;
+        }
+
+        Long left = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM " + job.table() + " WHERE " + job.pending(), Long.class);
+        jdbcTemplate.update("UPDATE backfill_progress SET finished_at = NOW(6) WHERE name = ?", job.name());
+        if (left != null && left > 0) {
+            logger.warn("Backfill {} finished: {} rows converted, {} could not be decoded and stay in the *_b64 columns",
+                        job.name(), converted, left);
+        } else {
+            logger.info("Backfill {} finished: {} rows converted", job.name(), converted);
+        }
+    }
+
+    /**
+     * One table's conversion: rows still pending that the database can decode get the assignments.
+     */
+    private record Job(String name, String table, String key, String assignments, String pending, String convertible) {
+    }
+}
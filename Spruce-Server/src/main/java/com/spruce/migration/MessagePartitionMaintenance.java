@@ -0,0 +1,185 @@
+package com.spruce.migration;
+
+import com.spruce.id.SnowflakeIdGenerator;
+import com.spruce.service.RecentMessageCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the monthly partitions of messages (see V5) ahead of the clock and applies retention.
+ *
+ * Every check-interval it splits p_future so that partitions exist for months-ahead months from
+ * now; p_future is empty at that point, so the split is a metadata change. With retention-months
+ * set, partitions whose every id is older than that many whole months are dropped, which removes
+ * a month of messages in one metadata operation instead of deleting rows; pending deliveries of
+ * those messages are deleted with them, and every node trims them from its recent-message cache.
+ * Nodes coordinate through a MySQL named lock, so only one runs the DDL at a time; the work is
+ * computed from information_schema each time and is safe to repeat.
+ */
+@Component
+public class MessagePartitionMaintenance {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessagePartitionMaintenance.class);
+
+    private static final String LOCK_NAME = "spruce.message_partitions";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final RecentMessageCache recentMessageCache;
+    private final int monthsAhead;
+    private final int retentionMonths;
+    private final long checkIntervalMinutes;
+    private final ScheduledExecutorService scheduler;
+    private final Counter created;
+    private final Counter dropped;
+
+    public MessagePartitionMaintenance(JdbcTemplate jdbcTemplate,
+                                       RecentMessageCache recentMessageCache,
+                                       @Value("${app.messages.partitions.months-ahead:3}") int monthsAhead,
+                                       @Value("${app.messages.retention-months:0}") int retentionMonths,
+                                       @Value("${app.messages.partitions.check-interval-minutes:60}") long checkIntervalMinutes,
+                                       MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.recentMessageCache = recentMessageCache;
+        this.monthsAhead = monthsAhead;
+        this.retentionMonths = retentionMonths;
+        this.checkIntervalMinutes = checkIntervalMinutes;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-partitions");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.created = Counter.builder("spruce.messages.partitions.created").register(meterRegistry);
+        this.dropped = Counter.builder("spruce.messages.partitions.dropped").register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::maintainSafely, 0, checkIntervalMinutes, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdown();
+    }
+
+    static YearMonth monthOf(long id) {
+        return YearMonth.from(Instant.ofEpochMilli(SnowflakeIdGenerator.timestampOf(id)).atOffset(ZoneOffset.UTC));
+    }
+
+    static long startOf(YearMonth month) {
+        return month.atDay(1).atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    // pYYYYMM holds the ids issued before the next month starts
+    static String partitionDefinition(YearMonth month) {
+        return String.format("PARTITION p%04d%02d VALUES LESS THAN (%d)", month.getYear(), month.getMonthValue(),
+                SnowflakeIdGenerator.minIdAt(startOf(month.plusMonths(1))));
+    }
+
+    private void maintainSafely() {
+        try {
+            // Named locks belong to a connection, so everything runs on one
+            jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+                JdbcTemplate session = new JdbcTemplate(new SingleConnectionDataSource(connection, true));
+                Integer locked = session.queryForObject("SELECT GET_LOCK(?, 0)", Integer.class, LOCK_NAME);
+                if (locked == null || locked != 1) {
+                    return null; // another node is on it
+                }
+                try {
+                    maintain(session, YearMonth.now(ZoneOffset.UTC));
+                } finally {
+                    session.queryForObject("SELECT RELEASE_LOCK(?)", Integer.class, LOCK_NAME);
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            logger.error("Message partition maintenance failed", e);
+        }
+    }
+
+    // Runs with the named lock held; now is the current month in UTC
+    void maintain(JdbcTemplate session, YearMonth now) {
+        List<Map<String, Object>> partitions = session.queryForList(
+                "SELECT partition_name AS name, partition_description AS bound FROM information_schema.partitions " +
+                "WHERE table_schema = DATABASE() AND table_name = 'messages' ORDER BY partition_ordinal_position");
+        if (partitions.isEmpty() || partitions.get(0).get("name") == null) {
+            logger.warn("messages is not partitioned; partition maintenance skipped");
+            return;
+        }
+
+        // Bounded partitions in order; the last row is p_future (MAXVALUE)
+        List<String> names = new ArrayList<>();
+        List<Long> bounds = new ArrayList<>();
+        for (Map<String, Object> partition : partitions) {
+            String bound = (String) partition.get("bound");
+            if (!"MAXVALUE".equals(bound)) {
+                names.add((String) partition.get("name"));
+                bounds.add(Long.parseLong(bound));
+            }
+        }
+
+        YearMonth next = bounds.isEmpty() ? now : monthOf(bounds.get(bounds.size() - 1));
+        addAhead(session, next, now.plusMonths(monthsAhead));
+        if (retentionMonths > 0) {
+            dropExpired(session, names, bounds, SnowflakeIdGenerator.minIdAt(startOf(now.minusMonths(retentionMonths))));
+        }
+    }
+
+    // The last bounded partition ends where month starts
+    private void addAhead(JdbcTemplate session, YearMonth month, YearMonth last) {
+        if (month.isAfter(last)) {
+            return;
+        }
+        StringJoiner split = new StringJoiner(", ", "ALTER TABLE messages REORGANIZE PARTITION p_future INTO (", ")");
+        int count = 0;
+        for (; !month.isAfter(last); month = month.plusMonths(1)) {
+            split.add(partitionDefinition(month));
+            count++;
+        }
+        split.add("PARTITION p_future VALUES LESS THAN MAXVALUE");
+        session.execute(split.toString());
+        created.increment(count);
+        logger.info("Added {} message partitions through {}", count, last);
+    }
+
+    // A partition is expired when its bound is at or below the cutoff id. The newest bounded
+    // partition is always kept so the table never runs out of ranges below p_future.
+    private void dropExpired(JdbcTemplate session, List<String> names, List<Long> bounds, long cutoff) {
+        StringJoiner expired = new StringJoiner(", ");
+        int count = 0;
+        while (count < names.size() - 1 && bounds.get(count) <= cutoff) {
+            expired.add(names.get(count++));
+        }
+        if (count == 0) {
+            return;
+        }
+        long droppedBelow = bounds.get(count - 1);
+        session.execute("ALTER TABLE messages DROP PARTITION " + expired);
+        int pending = session.update("DELETE FROM pending_deliveries WHERE message_id < ?", droppedBelow);
+        recentMessageCache.messagesExpired(droppedBelow);
+        dropped.increment(count);
+        logger.info("Dropped message partitions {} (ids below {}) and {} pending deliveries of them",
+                    expired, droppedBelow, pending);
+    }
+}
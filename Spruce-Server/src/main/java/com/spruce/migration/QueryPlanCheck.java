@@ -0,0 +1,133 @@
+package com.spruce.migration;
+
+import com.spruce.id.SnowflakeIdGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs EXPLAIN on the SQL behind each hot repository query once the application is ready and
+ * reports any that the planner would not answer from the index it was written for, e.g. after a
+ * migration dropped or renamed an index, and any month-bounded message query that is not pruned
+ * to one partition. Off by default: on small or empty tables MySQL often
+ * prefers a full scan, so run it against a database with realistic data (WARN logs, FAIL stops
+ * startup).
+ */
+@Component
+public class QueryPlanCheck {
+
+    private static final Logger logger = LoggerFactory.getLogger(QueryPlanCheck.class);
+
+    public enum Mode { OFF, WARN, FAIL }
+
+    // Each statement mirrors its repository query; expected keys are per table alias. :month and
+    // :now are the first ids of the current month and of the current time, as the history service
+    // bounds its newest-first pages; a query bounded by them must read a single partition.
+    private static final String MONTH = ":month";
+    private static final String NOW = ":now";
+
+    private static final List<Plan> PLANS = List.of(
+        new Plan("MessageRepository.findConversationBefore",
+                "SELECT * FROM messages m WHERE m.peer_low = 1 AND m.peer_high = 2 AND m.id >= :month AND m.id < :now " +
+                "ORDER BY m.id DESC LIMIT 51",
+                Map.of("m", "idx_messages_conversation")),
+        new Plan("MessageRepository.findConversationAfter",
+                "SELECT * FROM messages m WHERE m.peer_low = 1 AND m.peer_high = 2 AND m.id > 0 ORDER BY m.id LIMIT 51",
+                Map.of("m", "idx_messages_conversation")),
+        new Plan("MessageRepository.streamConversation",
+                "SELECT * FROM messages m WHERE m.peer_low = 1 AND m.peer_high = 2 ORDER BY m.id",
+                Map.of("m", "idx_messages_conversation")),
+        new Plan("MessageRepository.findGroupMessagesBefore",
+                "SELECT * FROM messages m WHERE m.group_id = 1 AND m.id >= :month AND m.id < :now " +
+                "ORDER BY m.id DESC LIMIT 51",
+                Map.of("m", "idx_messages_group")),
+        new Plan("MessageRepository.findGroupMessagesAfter",
+                "SELECT * FROM messages m WHERE m.group_id = 1 AND m.id > 0 ORDER BY m.id LIMIT 51",
+                Map.of("m", "idx_messages_group")),
+        new Plan("ContactRepository.findByUserIdAndStatus",
+                "SELECT * FROM contacts c WHERE c.user_id = 1 AND c.status = 'accepted'",
+                Map.of("c", "uk_contact_user_contact")),
+        new Plan("ContactRepository.findByUserIdAndContactId",
+                "SELECT * FROM contacts c WHERE c.user_id = 1 AND c.contact_id = 2",
+                Map.of("c", "uk_contact_user_contact")),
+        new Plan("ContactRepository.findAcceptedContactIds",
+                "SELECT c.contact_id FROM contacts c WHERE c.user_id = 1 AND c.status = 'accepted' ORDER BY c.contact_id",
+                Map.of("c", "uk_contact_user_contact")),
+        new Plan("PendingDeliveryRepository.findPendingMessages",
+                "SELECT m.* FROM pending_deliveries p JOIN messages m ON m.id = p.message_id " +
+                "WHERE p.user_id = 1 AND p.message_id > 0 ORDER BY p.message_id LIMIT 101",
+                Map.of("p", "uk_pending_user_message", "m", "PRIMARY")),
+        new Plan("GroupRepository.findByMember",
+                "SELECT g.* FROM `groups` g WHERE g.id IN (SELECT gm.group_id FROM group_members gm WHERE gm.user_id = 1) " +
+                "ORDER BY g.id",
+                Map.of("gm", "idx_group_members_user", "g", "PRIMARY")),
+        new Plan("GroupMemberRepository.findMemberPage",
+                "SELECT gm.user_id FROM group_members gm WHERE gm.group_id = 1 AND gm.user_id > 0 ORDER BY gm.user_id LIMIT 101",
+                Map.of("gm", "PRIMARY"))
+    );
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Mode mode;
+
+    public QueryPlanCheck(JdbcTemplate jdbcTemplate,
+                          @Value("${app.db.query-plan-check:OFF}") Mode mode) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.mode = mode;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void check() {
+        if (mode == Mode.OFF) {
+            return;
+        }
+        long month = SnowflakeIdGenerator.minIdAt(
+                YearMonth.now(ZoneOffset.UTC).atDay(1).atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli());
+        long now = SnowflakeIdGenerator.minIdAt(System.currentTimeMillis());
+        List<String> misses = new ArrayList<>();
+        for (Plan plan : PLANS) {
+            String sql = plan.sql().replace(MONTH, Long.toString(month)).replace(NOW, Long.toString(now));
+            for (Map<String, Object> row : jdbcTemplate.queryForList("EXPLAIN " + sql)) {
+                String table = (String) row.get("table");
+                String expected = plan.keysByTable().get(table);
+                if (expected == null) {
+                    continue; // derived or materialized tables
+                }
+                Object extra = row.get("Extra");
+                if (extra != null && (extra.toString().startsWith("no matching row") || extra.toString().startsWith("Impossible"))) {
+                    logger.debug("{}: no plan for {} (empty table)", plan.query(), table);
+                    continue;
+                }
+                String key = (String) row.get("key");
+                if (!expected.equals(key)) {
+                    misses.add(plan.query() + " reads " + table + " with " + (key != null ? key : "a full scan")
+                            + " (type " + row.get("type") + "), expected " + expected);
+                }
+                Object partitions = row.get("partitions");
+                if (plan.sql().contains(MONTH) && partitions != null && partitions.toString().contains(",")) {
+                    misses.add(plan.query() + " reads partitions " + partitions + " of " + table + ", expected one");
+                }
+            }
+        }
+        if (misses.isEmpty()) {
+            logger.info("Query plans: all {} checked queries use their indexes", PLANS.size());
+            return;
+        }
+        misses.forEach(miss -> logger.warn("Query plan: {}", miss));
+        if (mode == Mode.FAIL) {
+            throw new IllegalStateException(misses.size() + " queries do not use their indexes; see log");
+        }
+    }
+
+    private record Plan(String query, String sql, Map<String, String> keysByTable) {
+    }
+}
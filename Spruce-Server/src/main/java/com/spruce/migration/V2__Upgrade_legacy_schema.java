@@ -0,0 +1,93 @@
+package com.spruce.migration;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Brings a database that Hibernate's ddl-auto=update kept up to date (and that was baselined at
+ * version 1) to the shape V1 creates. Hibernate added tables and columns but never moved data,
+ * dropped columns, or added a constraint that existing rows violated, so this:
+ * <ul>
+ *   <li>copies the avatar, bio and key columns left on users into user_profiles and user_keys,
+ *       then drops them;</li>
+ *   <li>removes duplicate contact rows, adds the missing reverse direction of every relationship,
+ *       and adds the (user_id, contact_id) unique key;</li>
+ *   <li>adds the (user_id, group_id) index on group_members.</li>
+ * </ul>
+ * Each step checks information_schema first, so on a database created by V1 this does nothing.
+ */
+public class V2__Upgrade_legacy_schema extends BaseJavaMigration {
+
+    private static final Logger logger = LoggerFactory.getLogger(V2__Upgrade_legacy_schema.class);
+
+    private static final String[] LEGACY_USER_COLUMNS = {
+        "avatar", "bio", "perm_pub_x25519", "kyber_pub", "dilithium_pub", "keys_version"
+    };
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        Connection connection = context.getConnection();
+        try (Statement statement = connection.createStatement()) {
+            if (columnExists(connection, "users", "avatar")) {
+                String version = columnExists(connection, "users", "keys_version") ? "COALESCE(keys_version, 0)" : "0";
+                int profiles = statement.executeUpdate(
+                        "INSERT IGNORE INTO user_profiles (user_id, avatar, bio) SELECT id, avatar, bio FROM users");
+                int keys = statement.executeUpdate(
+                        "INSERT IGNORE INTO user_keys (user_id, perm_pub_x25519, kyber_pub, dilithium_pub, version) " +
+                        "SELECT id, perm_pub_x25519, kyber_pub, dilithium_pub, " + version + " FROM users");
+                logger.info("Moved {} profiles and {} key sets out of users", profiles, keys);
+            }
+            for (String column : LEGACY_USER_COLUMNS) {
+                if (columnExists(connection, "users", column)) {
+                    statement.execute("ALTER TABLE users DROP COLUMN " + column);
+                }
+            }
+
+            if (!indexExists(connection, "contacts", "uk_contact_user_contact")) {
+                int duplicates = statement.executeUpdate(
+                        "DELETE c1 FROM contacts c1 JOIN contacts c2 " +
+                        "ON c1.user_id = c2.user_id AND c1.contact_id = c2.contact_id AND c1.id > c2.id");
+                int mirrored = statement.executeUpdate(
+                        "INSERT INTO contacts (user_id, contact_id, status, created_at) " +
+                        "SELECT c.contact_id, c.user_id, c.status, c.created_at FROM contacts c " +
+                        "WHERE NOT EXISTS (SELECT 1 FROM contacts r WHERE r.user_id = c.contact_id AND r.contact_id = c.user_id)");
+                statement.execute("ALTER TABLE contacts ADD CONSTRAINT uk_contact_user_contact UNIQUE (user_id, contact_id)");
+                logger.info("Removed {} duplicate contacts and added {} reverse contacts", duplicates, mirrored);
+            }
+
+            if (!indexExists(connection, "group_members", "idx_group_members_user")) {
+                statement.execute("CREATE INDEX idx_group_members_user ON group_members (user_id, group_id)");
+            }
+        }
+    }
+
+    private static boolean columnExists(Connection connection, String table, String column) throws SQLException {
+        return exists(connection,
+                "SELECT 1 FROM information_schema.columns " +
+                "WHERE table_schema = DATABASE() AND table_name = ? AND column_name = ?", table, column);
+    }
+
+    private static boolean indexExists(Connection connection, String table, String index) throws SQLException {
+        return exists(connection,
+                "SELECT 1 FROM information_schema.statistics " +
+                "WHERE table_schema = DATABASE() AND table_name = ? AND index_name = ?", table, index);
+    }
+
+    private static boolean exists(Connection connection, String sql, String table, String name) throws SQLException {
+        try (PreparedStatement query = connection.prepareStatement(sql)) {
+            query.setString(1, table);
+            query.setString(2, name);
+            try (ResultSet rows = query.executeQuery()) {
+                return rows.next();
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.spruce.migration;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.StringJoiner;
+
+/**
+ * Partitions messages by month. Message ids are time-ordered Snowflake ids, so the partitions
+ * are ranges of id rather than of timestamp: the primary key stays (id), every keyset query
+ * already bounds id, and the optimizer prunes on it. Partition pYYYYMM holds ids issued in that
+ * month (the first one also holds anything older), p_future catches ids beyond the last month.
+ * Partitions run from the month of the oldest message to MONTHS_AHEAD months from now;
+ * MessagePartitionMaintenance keeps adding them from there and drops expired ones.
+ *
+ * The ALTER copies the table once and blocks writes while it does; on a large table run the
+ * same statement with an online schema change tool before deploying.
+ */
+public class V5__Partition_messages_by_month extends BaseJavaMigration {
+
+    private static final Logger logger = LoggerFactory.getLogger(V5__Partition_messages_by_month.class);
+
+    static final int MONTHS_AHEAD = 3;
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        try (Statement statement = context.getConnection().createStatement()) {
+            YearMonth first = YearMonth.now(ZoneOffset.UTC);
+            try (ResultSet oldest = statement.executeQuery("SELECT MIN(id) FROM messages")) {
+                if (oldest.next() && oldest.getObject(1) != null) {
+                    YearMonth month = MessagePartitionMaintenance.monthOf(oldest.getLong(1));
+                    first = month.isBefore(first) ? month : first;
+                }
+            }
+            YearMonth last = YearMonth.now(ZoneOffset.UTC).plusMonths(MONTHS_AHEAD);
+
+            StringJoiner partitions = new StringJoiner(", ", "ALTER TABLE messages PARTITION BY RANGE (id) (", ")");
+            for (YearMonth month = first; !month.isAfter(last); month = month.plusMonths(1)) {
+                partitions.add(MessagePartitionMaintenance.partitionDefinition(month));
+            }
+            partitions.add("PARTITION p_future VALUES LESS THAN MAXVALUE");
+            statement.execute(partitions.toString());
+            logger.info("Partitioned messages by month from {} to {}", first, last);
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.spruce.model;
+
+/**
+ * Security principal of an authenticated request, built from token claims alone.
+ * Controllers that need more than the id or username load the User themselves.
+ */
+public record AuthenticatedUser(Long id, String username) {
+}
@@ -0,0 +1,53 @@
+package com.spruce.model;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+import java.util.Base64;
+
+/**
+ * Stores a base64 attribute as the bytes it encodes. Clients and the API speak base64, so
+ * entities keep the string, but the column holds raw bytes, a quarter smaller than the text.
+ * Input should be checked with {@link #isBase64} before it reaches an entity; a value that does
+ * not decode fails the flush.
+ */
+@Converter
+public class Base64BinaryConverter implements AttributeConverter<String, byte[]> {
+
+    @Override
+    public byte[] convertToDatabaseColumn(String attribute) {
+        return attribute == null ? null : Base64.getDecoder().decode(attribute);
+    }
+
+    @Override
+    public String convertToEntityAttribute(byte[] column) {
+        return column == null ? null : Base64.getEncoder().encodeToString(column);
+    }
+
+    /**
+     * Whether the value is padded standard base64, without decoding it.
+     */
+    public static boolean isBase64(String value) {
+        int length = value.length();
+        if (length % 4 != 0) {
+            return false;
+        }
+        int padding = length > 0 && value.charAt(length - 1) == '=' ? (value.charAt(length - 2) == '=' ? 2 : 1) : 0;
+        for (int i = 0; i < length - padding; i++) {
+            char c = value.charAt(i);
+            if (!(c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '+' || c == '/')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Number of bytes a value accepted by {@link #isBase64} decodes to.
+     */
+    public static int decodedLength(String value) {
+        int length = value.length();
+        int padding = length > 0 && value.charAt(length - 1) == '=' ? (value.charAt(length - 2) == '=' ? 2 : 1) : 0;
+        return length / 4 * 3 - padding;
+    }
+}
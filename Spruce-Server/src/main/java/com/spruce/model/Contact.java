@@ -8,8 +8,13 @@ import org.hibernate.annotations.CreationTimestamp;
 
 import java.time.LocalDateTime;
 
+/**
+ * One direction of a contact relationship. Every relationship is stored as two rows,
+ * (a, b) and (b, a), so "contacts of a user" is a prefix scan of the unique index.
+ */
 @Entity
-@Table(name = "contacts")
+@Table(name = "contacts",
+       uniqueConstraints = @UniqueConstraint(name = "uk_contact_user_contact", columnNames = {"user_id", "contact_id"}))
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -7,11 +7,13 @@ import lombok.NoArgsConstructor;
 import org.hibernate.annotations.CreationTimestamp;
 
 import java.time.LocalDateTime;
-import java.util.HashSet;
-import java.util.Set;
 
+/**
+ * A group chat. Members are rows of {@link GroupMember}, not a collection on this entity,
+ * so loading or saving a group never touches its member list.
+ */
 @Entity
-@Table(name = "groups")
+@Table(name = "`groups`") // GROUPS is a reserved word since MySQL 8.0.2
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -29,15 +31,6 @@ public class Group {
     @Column(name = "owner_id", nullable = false)
     private Long ownerId;
 
-    @ElementCollection(fetch = FetchType.LAZY)
-    @CollectionTable(
-        name = "group_members", 
-        joinColumns = @JoinColumn(name = "group_id"),
-        foreignKey = @ForeignKey(name = "fk_group_members_group")
-    )
-    @Column(name = "user_id")
-    private Set<Long> memberIds = new HashSet<>();
-
     @CreationTimestamp
     @Column(nullable = false, updatable = false)
     private LocalDateTime createdAt;
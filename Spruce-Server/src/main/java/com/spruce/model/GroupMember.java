@@ -0,0 +1,37 @@
+package com.spruce.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * One user's membership of one group. Joining and leaving insert or delete a single row;
+ * the primary key serves member listing per group and the user_id index serves "my groups".
+ */
+@Entity
+@Table(name = "group_members",
+       indexes = @Index(name = "idx_group_members_user", columnList = "user_id, group_id"))
+@IdClass(GroupMember.Key.class)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class GroupMember {
+    @Id
+    @Column(name = "group_id", nullable = false)
+    private Long groupId;
+
+    @Id
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private Long groupId;
+        private Long userId;
+    }
+}
@@ -1,21 +1,35 @@
 package com.spruce.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.ColumnTransformer;
 import org.hibernate.annotations.CreationTimestamp;
+import org.springframework.data.domain.Persistable;
 
 import java.time.LocalDateTime;
 
+/**
+ * A stored message. Direct messages also carry their conversation key, the two participants
+ * lower id first, so both directions of a conversation are one range of idx_messages_conversation.
+ * The id is a time-ordered Snowflake id assigned when the message is submitted for persistence,
+ * so it can be relayed before the INSERT commits; isNew tells save() to insert rather than merge.
+ */
 @Entity
-@Table(name = "messages")
+@Table(name = "messages",
+       indexes = {
+           @Index(name = "idx_messages_conversation", columnList = "peer_low, peer_high, id"),
+           @Index(name = "idx_messages_group", columnList = "group_id, id")
+       })
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
-public class Message {
+public class Message implements Persistable<Long> {
+    public static final int IV_BYTES = 12;
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
     @Column(name = "sender_id", nullable = false)
@@ -27,11 +41,25 @@ public class Message {
     @Column(name = "group_id")
     private Long groupId;
 
-    @Column(columnDefinition = "TEXT", nullable = false)
+    @JsonIgnore
+    @Column(name = "peer_low")
+    private Long peerLow;
+
+    @JsonIgnore
+    @Column(name = "peer_high")
+    private Long peerHigh;
+
+    // Base64 in memory, raw bytes in the table. Rows written before the binary columns existed
+    // keep their text in *_b64 until BinaryColumnBackfill converts them, and are read from there.
+    @Convert(converter = Base64BinaryConverter.class)
+    @ColumnTransformer(read = "coalesce(ciphertext, from_base64(ciphertext_b64))")
+    @Column(columnDefinition = "MEDIUMBLOB")
     private String ciphertext;
 
-    @Column(columnDefinition = "TEXT")
-    private String iv; // Base64 encoded IV for AES-GCM
+    @Convert(converter = Base64BinaryConverter.class)
+    @ColumnTransformer(read = "coalesce(iv, from_base64(iv_b64))")
+    @Column(columnDefinition = "BINARY(12)")
+    private String iv; // AES-GCM IV, 12 bytes
 
     @Column(columnDefinition = "TEXT")
     private String metadata; // JSON metadata
@@ -39,8 +67,37 @@ public class Message {
     @CreationTimestamp
     @Column(nullable = false, updatable = false)
     private LocalDateTime timestamp;
-}
 
+    // Set once the row is known to exist (persisted or loaded)
+    @Transient
+    @JsonIgnore
+    private boolean stored;
+
+    @Override
+    @JsonIgnore
+    public boolean isNew() {
+        return !stored;
+    }
 
+    @PostPersist
+    @PostLoad
+    void markStored() {
+        stored = true;
+    }
 
+    /**
+     * Whether a payload can be stored: base64 ciphertext, and an IV that is absent or 12 bytes.
+     */
+    public static boolean isStorable(String ciphertext, String iv) {
+        return ciphertext != null && Base64BinaryConverter.isBase64(ciphertext)
+                && (iv == null || Base64BinaryConverter.isBase64(iv) && Base64BinaryConverter.decodedLength(iv) == IV_BYTES);
+    }
 
+    @PrePersist
+    void assignConversationKey() {
+        if (groupId == null && receiverId != null) {
+            peerLow = Math.min(senderId, receiverId);
+            peerHigh = Math.max(senderId, receiverId);
+        }
+    }
+}
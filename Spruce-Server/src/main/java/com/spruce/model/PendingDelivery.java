@@ -0,0 +1,33 @@
+package com.spruce.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A direct message its receiver has not acknowledged yet because they were offline when it was sent.
+ * Rows are deleted when the receiver acknowledges the drained batch.
+ */
+@Entity
+@Table(name = "pending_deliveries",
+       uniqueConstraints = @UniqueConstraint(name = "uk_pending_user_message", columnNames = {"user_id", "message_id"}))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PendingDelivery {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Column(name = "message_id", nullable = false)
+    private Long messageId;
+
+    public PendingDelivery(Long userId, Long messageId) {
+        this.userId = userId;
+        this.messageId = messageId;
+    }
+}
@@ -10,6 +10,11 @@ import org.hibernate.annotations.UpdateTimestamp;
 
 import java.time.LocalDateTime;
 
+/**
+ * The narrow, frequently read part of a user: identity, credentials and status.
+ * Large fields live in {@link UserProfile} (avatar, bio) and {@link UserPublicKeys},
+ * which are loaded only by the endpoints that need them.
+ */
 @Entity
 @Table(name = "users")
 @Data
@@ -31,20 +36,8 @@ public class User {
     @Column(unique = true, nullable = false)
     private String username;
 
-    @Column(columnDefinition = "TEXT")
-    private String avatar;
-
-    @Column(name = "perm_pub_x25519", columnDefinition = "TEXT")
-    private String permPubX25519;
-
-    @Column(name = "kyber_pub", columnDefinition = "TEXT")
-    private String kyberPub;
-
-    @Column(name = "dilithium_pub", columnDefinition = "TEXT")
-    private String dilithiumPub;
-
-    @Column(columnDefinition = "TEXT")
-    private String bio;
+    @Column(name = "token_generation", nullable = false)
+    private long tokenGeneration; // tokens issued under an older generation are rejected
 
     private String status = "online";
 
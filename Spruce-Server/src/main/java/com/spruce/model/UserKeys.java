@@ -0,0 +1,8 @@
+package com.spruce.model;
+
+/**
+ * A user's three public keys and the version they were published under.
+ * The version increases on every key update and is the basis of key ETags.
+ */
+public record UserKeys(Long userId, String permPubX25519, String kyberPub, String dilithiumPub, long version) {
+}
@@ -0,0 +1,26 @@
+package com.spruce.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Display fields of a user, kept out of the users row. A user without a row has no avatar or bio.
+ */
+@Entity
+@Table(name = "user_profiles")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserProfile {
+    @Id
+    @Column(name = "user_id")
+    private Long userId;
+
+    @Column(columnDefinition = "TEXT")
+    private String avatar;
+
+    @Column(columnDefinition = "TEXT")
+    private String bio;
+}
@@ -0,0 +1,51 @@
+package com.spruce.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.ColumnTransformer;
+
+/**
+ * A user's published public keys (base64, stored as bytes), kept out of the users row.
+ */
+@Entity
+@Table(name = "user_keys")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserPublicKeys {
+    private static final int MAX_X25519_BYTES = 64;
+    private static final int MAX_PQ_KEY_BYTES = 65535;
+
+    @Id
+    @Column(name = "user_id")
+    private Long userId;
+
+    // Keys published before the binary columns existed are read from *_b64 until converted
+    @Convert(converter = Base64BinaryConverter.class)
+    @ColumnTransformer(read = "coalesce(perm_pub_x25519, from_base64(perm_pub_x25519_b64))")
+    @Column(name = "perm_pub_x25519", columnDefinition = "VARBINARY(64)")
+    private String permPubX25519;
+
+    @Convert(converter = Base64BinaryConverter.class)
+    @ColumnTransformer(read = "coalesce(kyber_pub, from_base64(kyber_pub_b64))")
+    @Column(name = "kyber_pub", columnDefinition = "BLOB")
+    private String kyberPub;
+
+    @Convert(converter = Base64BinaryConverter.class)
+    @ColumnTransformer(read = "coalesce(dilithium_pub, from_base64(dilithium_pub_b64))")
+    @Column(name = "dilithium_pub", columnDefinition = "BLOB")
+    private String dilithiumPub;
+
+    @Column(nullable = false)
+    private long version; // bumped on every key update
+
+    /**
+     * Whether a published key can be stored: base64 that fits its column. Null means not published.
+     */
+    public static boolean isStorable(String key, boolean x25519) {
+        return key == null || Base64BinaryConverter.isBase64(key)
+                && Base64BinaryConverter.decodedLength(key) <= (x25519 ? MAX_X25519_BYTES : MAX_PQ_KEY_BYTES);
+    }
+}
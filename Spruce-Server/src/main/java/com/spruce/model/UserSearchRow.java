@@ -0,0 +1,7 @@
+package com.spruce.model;
+
+/**
+ * The columns of a user that the search index needs. Email may be null.
+ */
+public record UserSearchRow(Long id, String username, String email, String status) {
+}
@@ -0,0 +1,7 @@
+package com.spruce.model;
+
+/**
+ * Id, username and status of a user, for lists that show many users at once.
+ */
+public record UserSummary(Long id, String username, String status) {
+}
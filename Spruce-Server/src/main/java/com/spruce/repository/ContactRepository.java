@@ -12,18 +12,12 @@ import java.util.Optional;
 @Repository
 public interface ContactRepository extends JpaRepository<Contact, Long> {
     List<Contact> findByUserIdAndStatus(Long userId, String status);
-    
-    @Query("SELECT c FROM Contact c WHERE " +
-           "(c.userId = :userId AND c.contactId = :contactId) OR " +
-           "(c.userId = :contactId AND c.contactId = :userId)")
-    Optional<Contact> findContact(@Param("userId") Long userId, @Param("contactId") Long contactId);
-}
-
-
-
-
-
-
-
 
+    Optional<Contact> findByUserIdAndContactId(Long userId, Long contactId);
 
+    /**
+     * Ids of a user's accepted contacts, ascending. Served by the (user_id, contact_id) unique index.
+     */
+    @Query("SELECT c.contactId FROM Contact c WHERE c.userId = :userId AND c.status = 'accepted' ORDER BY c.contactId")
+    List<Long> findAcceptedContactIds(@Param("userId") Long userId);
+}
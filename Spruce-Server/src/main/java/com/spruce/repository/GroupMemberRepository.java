@@ -0,0 +1,35 @@
+package com.spruce.repository;
+
+import com.spruce.model.GroupMember;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface GroupMemberRepository extends JpaRepository<GroupMember, GroupMember.Key> {
+
+    /**
+     * Add one member; returns 0 if they already were one.
+     */
+    @Modifying
+    @Query(value = "INSERT IGNORE INTO group_members (group_id, user_id) VALUES (:groupId, :userId)", nativeQuery = true)
+    int insertMember(@Param("groupId") Long groupId, @Param("userId") Long userId);
+
+    @Modifying
+    @Query("DELETE FROM GroupMember m WHERE m.groupId = :groupId AND m.userId = :userId")
+    int deleteMember(@Param("groupId") Long groupId, @Param("userId") Long userId);
+
+    @Query("SELECT m.userId FROM GroupMember m WHERE m.groupId = :groupId ORDER BY m.userId")
+    List<Long> findMemberIds(@Param("groupId") Long groupId);
+
+    /**
+     * Keyset page of member ids above the cursor, ascending, along the primary key.
+     */
+    @Query("SELECT m.userId FROM GroupMember m WHERE m.groupId = :groupId AND m.userId > :after ORDER BY m.userId")
+    List<Long> findMemberPage(@Param("groupId") Long groupId, @Param("after") Long after, Pageable pageable);
+}
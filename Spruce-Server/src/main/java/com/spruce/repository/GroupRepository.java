@@ -2,6 +2,8 @@ package com.spruce.repository;
 
 import com.spruce.model.Group;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -9,13 +11,11 @@ import java.util.List;
 @Repository
 public interface GroupRepository extends JpaRepository<Group, Long> {
     List<Group> findByOwnerId(Long ownerId);
-}
-
-
-
-
-
-
-
-
 
+    /**
+     * Groups the user belongs to, served by the user_id index on group_members.
+     */
+    @Query("SELECT g FROM Group g WHERE g.id IN " +
+           "(SELECT m.groupId FROM GroupMember m WHERE m.userId = :userId) ORDER BY g.id")
+    List<Group> findByMember(@Param("userId") Long userId);
+}
@@ -1,30 +1,50 @@
 package com.spruce.repository;
 
 import com.spruce.model.Message;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface MessageRepository extends JpaRepository<Message, Long> {
-    @Query("SELECT m FROM Message m WHERE " +
-           "(m.senderId = :userId AND m.receiverId = :otherUserId) OR " +
-           "(m.senderId = :otherUserId AND m.receiverId = :userId) " +
-           "ORDER BY m.timestamp ASC")
-    List<Message> findConversation(@Param("userId") Long userId, @Param("otherUserId") Long otherUserId);
-
-    @Query("SELECT m FROM Message m WHERE m.groupId = :groupId ORDER BY m.timestamp ASC")
-    List<Message> findByGroupId(@Param("groupId") Long groupId);
+    // Keyset pages: message ids are time-ordered, so "id < cursor ORDER BY id" replaces OFFSET.
+    // Conversations are addressed by their key (lower participant id first) and served by
+    // idx_messages_conversation; group pages by idx_messages_group. The table is partitioned
+    // by id range, so the "from" bound of the newest-first queries limits the partitions read.
+
+    @Query("SELECT m FROM Message m WHERE m.peerLow = :peerLow AND m.peerHigh = :peerHigh " +
+           "AND m.id >= :from AND m.id < :before ORDER BY m.id DESC")
+    List<Message> findConversationBefore(@Param("peerLow") Long peerLow, @Param("peerHigh") Long peerHigh,
+                                         @Param("from") Long from, @Param("before") Long before, Pageable pageable);
+
+    @Query("SELECT m FROM Message m WHERE m.peerLow = :peerLow AND m.peerHigh = :peerHigh " +
+           "AND m.id > :after ORDER BY m.id ASC")
+    List<Message> findConversationAfter(@Param("peerLow") Long peerLow, @Param("peerHigh") Long peerHigh,
+                                        @Param("after") Long after, Pageable pageable);
+
+    @Query("SELECT m FROM Message m WHERE m.groupId = :groupId AND m.id >= :from AND m.id < :before ORDER BY m.id DESC")
+    List<Message> findGroupMessagesBefore(@Param("groupId") Long groupId, @Param("from") Long from,
+                                          @Param("before") Long before, Pageable pageable);
+
+    @Query("SELECT m FROM Message m WHERE m.groupId = :groupId AND m.id > :after ORDER BY m.id ASC")
+    List<Message> findGroupMessagesAfter(@Param("groupId") Long groupId, @Param("after") Long after, Pageable pageable);
+
+    /**
+     * Forward-only cursor over a whole conversation. Integer.MIN_VALUE makes the MySQL driver
+     * stream rows one at a time instead of buffering the result set; must be consumed inside a transaction.
+     */
+    @QueryHints({
+        @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "" + Integer.MIN_VALUE),
+        @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT m FROM Message m WHERE m.peerLow = :peerLow AND m.peerHigh = :peerHigh ORDER BY m.id ASC")
+    Stream<Message> streamConversation(@Param("peerLow") Long peerLow, @Param("peerHigh") Long peerHigh);
 }
-
-
-
-
-
-
-
-
-
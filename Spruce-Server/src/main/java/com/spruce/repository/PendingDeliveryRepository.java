@@ -0,0 +1,30 @@
+package com.spruce.repository;
+
+import com.spruce.model.Message;
+import com.spruce.model.PendingDelivery;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface PendingDeliveryRepository extends JpaRepository<PendingDelivery, Long> {
+
+    // Walks the (user_id, message_id) unique index in order
+    @Query("SELECT m FROM PendingDelivery p, Message m WHERE m.id = p.messageId " +
+           "AND p.userId = :userId AND p.messageId > :after ORDER BY p.messageId ASC")
+    List<Message> findPendingMessages(@Param("userId") Long userId, @Param("after") Long after, Pageable pageable);
+
+    @Query("SELECT m FROM PendingDelivery p, Message m WHERE m.id = p.messageId " +
+           "AND p.userId = :userId AND p.messageId IN :messageIds ORDER BY p.messageId ASC")
+    List<Message> findPendingMessagesIn(@Param("userId") Long userId, @Param("messageIds") Collection<Long> messageIds);
+
+    @Modifying
+    @Query("DELETE FROM PendingDelivery p WHERE p.userId = :userId AND p.messageId IN :messageIds")
+    int deleteDelivered(@Param("userId") Long userId, @Param("messageIds") Collection<Long> messageIds);
+}
@@ -0,0 +1,27 @@
+package com.spruce.repository;
+
+import com.spruce.model.UserKeys;
+import com.spruce.model.UserPublicKeys;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface UserPublicKeysRepository extends JpaRepository<UserPublicKeys, Long> {
+
+    @Query("SELECT new com.spruce.model.UserKeys(k.userId, k.permPubX25519, k.kyberPub, k.dilithiumPub, k.version) " +
+           "FROM UserPublicKeys k WHERE k.userId IN :ids")
+    List<UserKeys> findKeysByUserIdIn(@Param("ids") Collection<Long> ids);
+
+    // SELECT ... FOR UPDATE: holds the row until the transaction ends
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT k FROM UserPublicKeys k WHERE k.userId = :id")
+    Optional<UserPublicKeys> findByIdForUpdate(@Param("id") Long id);
+}
@@ -1,10 +1,22 @@
 package com.spruce.repository;
 
 import com.spruce.model.User;
+import com.spruce.model.UserSearchRow;
+import com.spruce.model.UserSummary;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface UserRepository extends JpaRepository<User, Long> {
@@ -12,6 +24,38 @@ public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByUsername(String username);
     boolean existsByEmail(String email);
     boolean existsByUsername(String username);
+
+    @Query("SELECT new com.spruce.model.UserSummary(u.id, u.username, u.status) FROM User u WHERE u.id IN :ids")
+    List<UserSummary> findSummariesByIdIn(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Substring search straight against the table; only used until the in-memory index is built.
+     */
+    @Query("SELECT new com.spruce.model.UserSummary(u.id, u.username, u.status) FROM User u " +
+           "WHERE LOWER(u.username) LIKE LOWER(CONCAT('%', :query, '%')) " +
+           "OR LOWER(u.email) LIKE LOWER(CONCAT('%', :query, '%')) ORDER BY u.username")
+    List<UserSummary> searchSummaries(@Param("query") String query, Pageable pageable);
+
+    /**
+     * Every user's searchable columns, streamed row by row; must be consumed inside a transaction.
+     */
+    @QueryHints({
+        @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "" + Integer.MIN_VALUE),
+        @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT new com.spruce.model.UserSearchRow(u.id, u.username, u.email, u.status) FROM User u")
+    Stream<UserSearchRow> streamSearchRows();
+
+    @Query("SELECT u.tokenGeneration FROM User u WHERE u.id = :id")
+    Optional<Long> findTokenGenerationById(@Param("id") Long id);
+
+    @Modifying
+    @Query("UPDATE User u SET u.password = :password WHERE u.id = :id")
+    int updatePassword(@Param("id") Long id, @Param("password") String password);
+
+    @Modifying
+    @Query("UPDATE User u SET u.tokenGeneration = u.tokenGeneration + 1 WHERE u.id = :id")
+    int incrementTokenGeneration(@Param("id") Long id);
 }
 
 
@@ -1,65 +1,121 @@
 package com.spruce.service;
 
 import com.spruce.model.User;
-import org.springframework.security.crypto.password.PasswordEncoder;
+import com.spruce.model.UserPublicKeys;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Service
 public class AuthService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuthService.class);
     
     private final UserService userService;
-    private final PasswordEncoder passwordEncoder;
+    private final PasswordHashingService passwordHashingService;
     private final JwtService jwtService;
+    private final TokenGenerations tokenGenerations;
+    // Database writes that follow a hash, so the hashing threads only ever run BCrypt
+    private final ExecutorService writer;
 
-    public AuthService(UserService userService, PasswordEncoder passwordEncoder, JwtService jwtService) {
+    public AuthService(UserService userService, PasswordHashingService passwordHashingService, JwtService jwtService,
+                       TokenGenerations tokenGenerations,
+                       @Value("${app.auth.write-threads:4}") int writeThreads) {
         this.userService = userService;
-        this.passwordEncoder = passwordEncoder;
+        this.passwordHashingService = passwordHashingService;
         this.jwtService = jwtService;
+        this.tokenGenerations = tokenGenerations;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.writer = Executors.newFixedThreadPool(writeThreads, runnable -> {
+            Thread thread = new Thread(runnable, "auth-write-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
-    public Map<String, Object> register(String username, String password, Map<String, String> publicKeys) {
-        Map<String, Object> response = new HashMap<>();
-        
+    @PreDestroy
+    public void shutdown() {
+        writer.shutdown();
+    }
+
+    /**
+     * Register a user. The password is hashed on the hashing pool and the user saved on a writer
+     * thread; the future fails with RejectedExecutionException if the hashing pool is saturated.
+     */
+    public CompletableFuture<Map<String, Object>> register(String username, String password,
+                                                           Map<String, String> publicKeys) {
         if (userService.existsByUsername(username)) {
+            Map<String, Object> response = new HashMap<>();
             response.put("success", false);
             response.put("message", "Username already exists");
-            return response;
+            return CompletableFuture.completedFuture(response);
         }
         
-        User user = new User();
-        user.setUsername(username);
-        user.setPassword(password);
-        user.setPermPubX25519(publicKeys.get("perm_pub_x25519"));
-        user.setKyberPub(publicKeys.get("kyber_pub"));
-        user.setDilithiumPub(publicKeys.get("dilithium_pub"));
-        user.setStatus("online");
-        
-        User registeredUser = userService.register(user);
-        String token = jwtService.generateToken(registeredUser.getUsername());
-        
-        // Return user data without password
-        Map<String, Object> userData = new HashMap<>();
-        userData.put("id", registeredUser.getId());
-        userData.put("username", registeredUser.getUsername());
-        userData.put("status", registeredUser.getStatus());
+        if (!UserPublicKeys.isStorable(publicKeys.get("perm_pub_x25519"), true)
+                || !UserPublicKeys.isStorable(publicKeys.get("kyber_pub"), false)
+                || !UserPublicKeys.isStorable(publicKeys.get("dilithium_pub"), false)) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("message", "Keys must be base64");
+            return CompletableFuture.completedFuture(response);
+        }
         
-        response.put("token", token);
-        response.put("user", userData);
-        return response;
+        return passwordHashingService.hash(password).thenApplyAsync(hash -> {
+            User user = new User();
+            user.setUsername(username);
+            user.setPassword(hash);
+            user.setStatus("online");
+            UserPublicKeys keys = new UserPublicKeys(null, publicKeys.get("perm_pub_x25519"),
+                    publicKeys.get("kyber_pub"), publicKeys.get("dilithium_pub"), 0);
+            return tokenResponse(userService.register(user, keys));
+        }, writer);
     }
 
-    public Map<String, Object> login(String username, String password) {
-        Map<String, Object> response = new HashMap<>();
-        
+    /**
+     * Check credentials on the hashing pool. A hash made with a different cost than the configured
+     * one is replaced in the background after a successful login.
+     */
+    public CompletableFuture<Map<String, Object>> login(String username, String password) {
         User user = userService.findByUsername(username).orElse(null);
-        if (user == null || !passwordEncoder.matches(password, user.getPassword())) {
-            throw new RuntimeException("Invalid credentials");
+        if (user == null) {
+            return CompletableFuture.failedFuture(new RuntimeException("Invalid credentials"));
         }
         
-        String token = jwtService.generateToken(user.getUsername());
+        return passwordHashingService.matches(password, user.getPassword()).thenApply(matches -> {
+            if (!matches) {
+                throw new RuntimeException("Invalid credentials");
+            }
+            if (passwordHashingService.needsRehash(user.getPassword())) {
+                rehash(user.getId(), password);
+            }
+            return tokenResponse(user);
+        });
+    }
+
+    private void rehash(Long userId, String password) {
+        try {
+            passwordHashingService.hash(password)
+                    .thenAcceptAsync(hash -> userService.updatePasswordHash(userId, hash), writer)
+                    .exceptionally(e -> {
+                        logger.warn("Could not rehash password of user {}: {}", userId, e.getMessage());
+                        return null;
+                    });
+        } catch (RuntimeException e) {
+            logger.warn("Could not rehash password of user {}: {}", userId, e.getMessage());
+        }
+    }
+
+    private Map<String, Object> tokenResponse(User user) {
+        String token = jwtService.generateToken(user.getId(), user.getUsername(), user.getTokenGeneration());
         
         // Return user data without password
         Map<String, Object> userData = new HashMap<>();
@@ -67,6 +123,7 @@ public class AuthService {
         userData.put("username", user.getUsername());
         userData.put("status", user.getStatus());
         
+        Map<String, Object> response = new HashMap<>();
         response.put("token", token);
         response.put("user", userData);
         return response;
@@ -75,6 +132,20 @@ public class AuthService {
     public User getCurrentUser(String username) {
         return userService.findByUsername(username).orElse(null);
     }
+
+    public User getCurrentUser(Long userId) {
+        return userService.findById(userId).orElse(null);
+    }
+
+    /**
+     * Invalidate every token the user holds, on every node, and return a fresh one for the caller.
+     * Call after credentials change (password, keys).
+     */
+    public String revokeTokens(Long userId) {
+        User user = userService.advanceTokenGeneration(userId);
+        tokenGenerations.revoked(userId, user.getTokenGeneration());
+        return jwtService.generateToken(user.getId(), user.getUsername(), user.getTokenGeneration());
+    }
 }
 
 
@@ -0,0 +1,164 @@
+package com.spruce.service;
+
+import com.spruce.cluster.ClusterRouter;
+import com.spruce.model.Contact;
+import com.spruce.repository.ContactRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Who is whose contact. Relationships are stored in both directions, and each user's accepted
+ * contacts are cached as a sorted long[] (LRU beyond max-entries), so listing contacts costs
+ * O(degree) and a membership check is a binary search over a few dozen longs. New contacts are
+ * merged into cached arrays in place of a reload, on every node (topic {@value #TOPIC}, key =
+ * userId:contactId).
+ */
+@Service
+public class ContactGraph {
+
+    static final String TOPIC = "contacts";
+
+    private static final long[] NONE = new long[0];
+
+    private final ContactRepository contactRepository;
+    private final ClusterRouter clusterRouter;
+    private final int maxEntries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    // Access-ordered for LRU; every access goes through the monitor on this map
+    private final LinkedHashMap<Long, long[]> adjacency = new LinkedHashMap<>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, long[]> eldest) {
+            return size() > maxEntries;
+        }
+    };
+    private long modifications;
+
+    public ContactGraph(ContactRepository contactRepository,
+                        @Value("${app.contacts.cache.max-entries:100000}") int maxEntries,
+                        ClusterRouter clusterRouter,
+                        MeterRegistry meterRegistry) {
+        this.contactRepository = contactRepository;
+        this.clusterRouter = clusterRouter;
+        this.maxEntries = maxEntries;
+        FunctionCounter.builder("spruce.contacts.cache.requests", hits, LongAdder::sum)
+                .tag("result", "hit").register(meterRegistry);
+        FunctionCounter.builder("spruce.contacts.cache.requests", misses, LongAdder::sum)
+                .tag("result", "miss").register(meterRegistry);
+        clusterRouter.addInvalidationListener(TOPIC, key -> {
+            int colon = key.indexOf(':');
+            added(Long.parseLong(key.substring(0, colon)), Long.parseLong(key.substring(colon + 1)));
+        });
+    }
+
+    /**
+     * Ids of the user's accepted contacts, ascending. The array is shared and must not be modified.
+     */
+    public long[] contactsOf(long userId) {
+        long generation;
+        synchronized (adjacency) {
+            long[] cached = adjacency.get(userId);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+            generation = modifications;
+        }
+        misses.increment();
+
+        List<Long> ids = contactRepository.findAcceptedContactIds(userId);
+        long[] loaded = ids.isEmpty() ? NONE : new long[ids.size()];
+        for (int i = 0; i < loaded.length; i++) {
+            loaded[i] = ids.get(i);
+        }
+        synchronized (adjacency) {
+            // A contact added while we were loading may be missing from what we read; do not cache it
+            if (modifications == generation) {
+                adjacency.put(userId, loaded);
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * The user's cached contacts, or null if they are not cached. Never reads the database.
+     */
+    public long[] cachedContactsOf(long userId) {
+        synchronized (adjacency) {
+            return adjacency.get(userId);
+        }
+    }
+
+    public boolean areContacts(long userId, long otherUserId) {
+        return Arrays.binarySearch(contactsOf(userId), otherUserId) >= 0;
+    }
+
+    /**
+     * Make two users each other's accepted contact, creating whichever direction is missing.
+     * Returns the row owned by userId. Call {@link #contactAdded} after this commits.
+     */
+    @Transactional
+    public Contact connect(long userId, long contactId) {
+        Contact forward = accept(userId, contactId);
+        accept(contactId, userId);
+        return forward;
+    }
+
+    /**
+     * Merge a committed relationship into the cached arrays of both users, if present.
+     */
+    public void added(long userId, long contactId) {
+        synchronized (adjacency) {
+            modifications++;
+            insert(userId, contactId);
+            insert(contactId, userId);
+        }
+    }
+
+    /**
+     * Merge a committed relationship into the cached arrays on this node and every other node.
+     */
+    public void contactAdded(long userId, long contactId) {
+        added(userId, contactId);
+        clusterRouter.invalidate(TOPIC, userId + ":" + contactId);
+    }
+
+    private Contact accept(long userId, long contactId) {
+        Contact contact = contactRepository.findByUserIdAndContactId(userId, contactId).orElseGet(() -> {
+            Contact created = new Contact();
+            created.setUserId(userId);
+            created.setContactId(contactId);
+            return created;
+        });
+        contact.setStatus("accepted"); // Auto-accept for simplicity
+        return contactRepository.save(contact);
+    }
+
+    // Caller holds the monitor. Cached arrays are replaced, never written, since readers share them.
+    private void insert(long userId, long contactId) {
+        long[] current = adjacency.get(userId);
+        if (current == null) {
+            return;
+        }
+        int index = Arrays.binarySearch(current, contactId);
+        if (index >= 0) {
+            return;
+        }
+        int at = -index - 1;
+        long[] grown = new long[current.length + 1];
+        System.arraycopy(current, 0, grown, 0, at);
+        grown[at] = contactId;
+        System.arraycopy(current, at, grown, at + 1, current.length - at);
+        adjacency.put(userId, grown);
+    }
+}
@@ -0,0 +1,138 @@
+package com.spruce.service;
+
+import com.spruce.cluster.ClusterRouter;
+import com.spruce.repository.GroupMemberRepository;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cached member sets per group for message fan-out, so relaying a group message does not
+ * read group_members each time. Each set is a sorted long[] (8 bytes per member): membership
+ * checks are a binary search and fan-out walks the array. Joins and leaves are applied to the
+ * cached array copy-on-write on every node (topic {@value #TOPIC}; key "=groupId" to reload a
+ * group, "+groupId:userId" for a join, "-groupId:userId" for a leave).
+ */
+@Service
+public class GroupMembershipCache {
+
+    static final String TOPIC = "group-members";
+
+    private static final long[] NONE = new long[0];
+
+    private final GroupMemberRepository groupMemberRepository;
+    private final ClusterRouter clusterRouter;
+    private final Map<Long, long[]> members = new ConcurrentHashMap<>();
+    private final AtomicLong modifications = new AtomicLong();
+
+    public GroupMembershipCache(GroupMemberRepository groupMemberRepository, ClusterRouter clusterRouter) {
+        this.groupMemberRepository = groupMemberRepository;
+        this.clusterRouter = clusterRouter;
+        clusterRouter.addInvalidationListener(TOPIC, this::apply);
+    }
+
+    /**
+     * Member ids of a group, ascending; empty if the group does not exist.
+     * The array is shared and must not be modified.
+     */
+    public long[] getMembers(Long groupId) {
+        long[] cached = members.get(groupId);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = modifications.get();
+        List<Long> ids = groupMemberRepository.findMemberIds(groupId);
+        long[] loaded = ids.isEmpty() ? NONE : new long[ids.size()];
+        for (int i = 0; i < loaded.length; i++) {
+            loaded[i] = ids.get(i);
+        }
+        // A join or leave applied while we were loading may be missing from what we read; do not cache it
+        long[] result = members.compute(groupId, (id, existing) ->
+                existing != null ? existing : modifications.get() == generation ? loaded : null);
+        return result != null ? result : loaded;
+    }
+
+    public boolean isMember(Long groupId, Long userId) {
+        return Arrays.binarySearch(getMembers(groupId), userId) >= 0;
+    }
+
+    /**
+     * Apply a committed join to the cached set, if the group is cached.
+     */
+    public void memberAdded(long groupId, long userId) {
+        modifications.incrementAndGet();
+        members.computeIfPresent(groupId, (id, current) -> {
+            int index = Arrays.binarySearch(current, userId);
+            if (index >= 0) {
+                return current;
+            }
+            int at = -index - 1;
+            long[] grown = new long[current.length + 1];
+            System.arraycopy(current, 0, grown, 0, at);
+            grown[at] = userId;
+            System.arraycopy(current, at, grown, at + 1, current.length - at);
+            return grown;
+        });
+    }
+
+    /**
+     * Apply a committed leave to the cached set, if the group is cached.
+     */
+    public void memberRemoved(long groupId, long userId) {
+        modifications.incrementAndGet();
+        members.computeIfPresent(groupId, (id, current) -> {
+            int at = Arrays.binarySearch(current, userId);
+            if (at < 0) {
+                return current;
+            }
+            long[] shrunk = new long[current.length - 1];
+            System.arraycopy(current, 0, shrunk, 0, at);
+            System.arraycopy(current, at + 1, shrunk, at, current.length - at - 1);
+            return shrunk;
+        });
+    }
+
+    public void invalidate(Long groupId) {
+        modifications.incrementAndGet();
+        members.remove(groupId);
+    }
+
+    /**
+     * Drop a group's cached member set on this node and every other node.
+     */
+    public void membershipChanged(long groupId) {
+        invalidate(groupId);
+        clusterRouter.invalidate(TOPIC, "=" + groupId);
+    }
+
+    /**
+     * Apply a committed join (added) or leave on this node and every other node.
+     */
+    public void memberChanged(long groupId, long userId, boolean added) {
+        if (added) {
+            memberAdded(groupId, userId);
+        } else {
+            memberRemoved(groupId, userId);
+        }
+        clusterRouter.invalidate(TOPIC, (added ? "+" : "-") + groupId + ":" + userId);
+    }
+
+    private void apply(String key) {
+        int colon = key.indexOf(':');
+        if (colon < 0) {
+            invalidate(Long.parseLong(key.substring(1)));
+            return;
+        }
+        long groupId = Long.parseLong(key.substring(1, colon));
+        long userId = Long.parseLong(key.substring(colon + 1));
+        if (key.charAt(0) == '+') {
+            memberAdded(groupId, userId);
+        } else {
+            memberRemoved(groupId, userId);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.spruce.service;
+
+import com.spruce.model.Group;
+import com.spruce.repository.GroupMemberRepository;
+import com.spruce.repository.GroupRepository;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Group creation and membership changes. Each join or leave is a single-row insert or delete;
+ * callers tell ClusterRouter after it commits so cached member sets are updated.
+ */
+@Service
+public class GroupService {
+
+    private final GroupRepository groupRepository;
+    private final GroupMemberRepository groupMemberRepository;
+
+    public GroupService(GroupRepository groupRepository, GroupMemberRepository groupMemberRepository) {
+        this.groupRepository = groupRepository;
+        this.groupMemberRepository = groupMemberRepository;
+    }
+
+    /**
+     * Save a new group with its owner as the first member.
+     */
+    @Transactional
+    public Group create(Group group) {
+        Group saved = groupRepository.save(group);
+        groupMemberRepository.insertMember(saved.getId(), saved.getOwnerId());
+        return saved;
+    }
+
+    /**
+     * Returns whether the user was not already a member.
+     */
+    @Transactional
+    public boolean join(Long groupId, Long userId) {
+        return groupMemberRepository.insertMember(groupId, userId) > 0;
+    }
+
+    /**
+     * Returns whether the user was a member.
+     */
+    @Transactional
+    public boolean leave(Long groupId, Long userId) {
+        return groupMemberRepository.deleteMember(groupId, userId) > 0;
+    }
+}
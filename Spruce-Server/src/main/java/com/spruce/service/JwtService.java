@@ -1,88 +1,136 @@
 package com.spruce.service;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.security.Keys;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Date;
-import java.util.function.Function;
-
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Issues and verifies JWTs. The signing key and parser are built once. Verified tokens are
+ * remembered (keyed by a SHA-256 digest of the token, never the token itself) until their own
+ * expiry, so a client presenting the same token on every request is verified once.
+ * Tokens carry the user id and token generation, so authenticating a request needs no database
+ * read; the generation is checked against {@link TokenGenerations} on every use.
+ */
 @Service
 public class JwtService {
-    
-    private final String secret;
+
+    /**
+     * Claims of a token whose signature and expiry have been checked.
+     */
+    public record VerifiedToken(long userId, String username, long generation, long expiresAtMillis) {
+        public boolean isExpired(long nowMillis) {
+            return expiresAtMillis <= nowMillis;
+        }
+    }
+
+    // First 128 bits of the token's SHA-256
+    private record TokenDigest(long high, long low) {
+    }
+
+    private static final String USER_ID_CLAIM = "uid";
+    private static final String GENERATION_CLAIM = "gen";
+
     private final Long expiration;
+    private final TokenGenerations tokenGenerations;
+    private final SecretKey signingKey;
+    private final JwtParser parser;
+    private final int cacheMaxEntries;
+    private final Map<TokenDigest, VerifiedToken> verified = new ConcurrentHashMap<>();
 
     public JwtService(
             @Value("${jwt.secret}") String secret,
-            @Value("${jwt.expiration}") Long expiration) {
-        this.secret = secret;
+            @Value("${jwt.expiration}") Long expiration,
+            @Value("${jwt.cache.max-entries:10000}") int cacheMaxEntries,
+            TokenGenerations tokenGenerations) {
         this.expiration = expiration;
+        this.tokenGenerations = tokenGenerations;
+        this.signingKey = Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
+        this.parser = Jwts.parser().verifyWith(signingKey).build();
+        this.cacheMaxEntries = cacheMaxEntries;
     }
 
-    private SecretKey getSigningKey() {
-        byte[] keyBytes = secret.getBytes(StandardCharsets.UTF_8);
-        return Keys.hmacShaKeyFor(keyBytes);
-    }
-
-    public String generateToken(String username) {
+    public String generateToken(Long userId, String username, long generation) {
         return Jwts.builder()
                 .subject(username)
+                .claim(USER_ID_CLAIM, userId)
+                .claim(GENERATION_CLAIM, generation)
                 .issuedAt(new Date(System.currentTimeMillis()))
                 .expiration(new Date(System.currentTimeMillis() + expiration))
-                .signWith(getSigningKey())
+                .signWith(signingKey)
                 .compact();
     }
 
-    public String extractUsername(String token) {
-        return extractClaim(token, Claims::getSubject);
-    }
-    
-    public Boolean validateToken(String token) {
-        try {
-            final String extractedUsername = extractUsername(token);
-            return extractedUsername != null && !isTokenExpired(token);
-        } catch (Exception e) {
-            return false;
+    /**
+     * Verify signature and expiry once and return the claims the server uses, or empty if the
+     * token is invalid, expired, revoked or was issued before tokens carried a user id.
+     */
+    public Optional<VerifiedToken> verify(String token) {
+        long now = System.currentTimeMillis();
+        TokenDigest digest = digest(token);
+        VerifiedToken cached = verified.get(digest);
+        if (cached != null) {
+            if (cached.isExpired(now)) {
+                verified.remove(digest);
+                return Optional.empty();
+            }
+            return tokenGenerations.isCurrent(cached.userId(), cached.generation()) ? Optional.of(cached) : Optional.empty();
         }
-    }
-
-    public Date extractExpiration(String token) {
-        return extractClaim(token, Claims::getExpiration);
-    }
-
-    public <T> T extractClaim(String token, Function<Claims, T> claimsResolver) {
-        final Claims claims = extractAllClaims(token);
-        return claimsResolver.apply(claims);
-    }
 
-    private Claims extractAllClaims(String token) {
-        return Jwts.parser()
-                .verifyWith(getSigningKey())
-                .build()
-                .parseSignedClaims(token)
-                .getPayload();
+        Claims claims;
+        try {
+            claims = parser.parseSignedClaims(token).getPayload();
+        } catch (JwtException | IllegalArgumentException e) {
+            return Optional.empty();
+        }
+        Date expiresAt = claims.getExpiration();
+        Long userId = claims.get(USER_ID_CLAIM, Long.class);
+        Long generation = claims.get(GENERATION_CLAIM, Long.class);
+        if (claims.getSubject() == null || userId == null || generation == null
+                || expiresAt == null || expiresAt.getTime() <= now) {
+            return Optional.empty();
+        }
+        VerifiedToken result = new VerifiedToken(userId, claims.getSubject(), generation, expiresAt.getTime());
+        remember(digest, result, now);
+        return tokenGenerations.isCurrent(userId, generation) ? Optional.of(result) : Optional.empty();
     }
 
-    private Boolean isTokenExpired(String token) {
-        return extractExpiration(token).before(new Date());
+    private void remember(TokenDigest digest, VerifiedToken token, long now) {
+        if (verified.size() >= cacheMaxEntries) {
+            // Expired entries go first; if that is not enough, drop arbitrary entries down to 3/4
+            verified.values().removeIf(v -> v.isExpired(now));
+            Iterator<TokenDigest> keys = verified.keySet().iterator();
+            while (verified.size() > cacheMaxEntries * 3 / 4 && keys.hasNext()) {
+                keys.next();
+                keys.remove();
+            }
+        }
+        verified.put(digest, token);
     }
 
-    public Boolean validateToken(String token, String username) {
-        final String extractedUsername = extractUsername(token);
-        return (extractedUsername.equals(username) && !isTokenExpired(token));
+    private static TokenDigest digest(String token) {
+        // A fresh digest per call: a thread-local one is never reused when each request has its own virtual thread
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer hash = ByteBuffer.wrap(sha256.digest(token.getBytes(StandardCharsets.UTF_8)));
+        return new TokenDigest(hash.getLong(), hash.getLong());
     }
 }
-
-
-
-
-
-
-
-
-
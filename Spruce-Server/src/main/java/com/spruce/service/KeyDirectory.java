@@ -0,0 +1,122 @@
+package com.spruce.service;
+
+import com.spruce.cluster.ClusterRouter;
+import com.spruce.model.UserKeys;
+import com.spruce.repository.UserPublicKeysRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of users' public keys for handshakes and key lookups. Entries are evicted least-recently-used beyond max-entries and invalidated when a
+ * user publishes new keys, on every node (topic {@value #TOPIC}, key = user id).
+ */
+@Service
+public class KeyDirectory {
+
+    static final String TOPIC = "keys";
+
+    private final UserPublicKeysRepository userPublicKeysRepository;
+    private final ClusterRouter clusterRouter;
+    private final int maxEntries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    // Access-ordered for LRU; every access goes through the monitor on this map
+    private final LinkedHashMap<Long, UserKeys> entries = new LinkedHashMap<>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, UserKeys> eldest) {
+            return size() > maxEntries;
+        }
+    };
+    private long invalidations;
+
+    public KeyDirectory(UserPublicKeysRepository userPublicKeysRepository,
+                        @Value("${app.keys.cache.max-entries:10000}") int maxEntries,
+                        ClusterRouter clusterRouter,
+                        MeterRegistry meterRegistry) {
+        this.userPublicKeysRepository = userPublicKeysRepository;
+        this.clusterRouter = clusterRouter;
+        this.maxEntries = maxEntries;
+        FunctionCounter.builder("spruce.keys.cache.requests", hits, LongAdder::sum)
+                .tag("result", "hit").register(meterRegistry);
+        FunctionCounter.builder("spruce.keys.cache.requests", misses, LongAdder::sum)
+                .tag("result", "miss").register(meterRegistry);
+        clusterRouter.addInvalidationListener(TOPIC, key -> invalidate(Long.parseLong(key)));
+    }
+
+    public Optional<UserKeys> get(Long userId) {
+        return Optional.ofNullable(getAll(List.of(userId)).get(userId));
+    }
+
+    /**
+     * Keys for each id that belongs to a user, in request order. Misses are loaded with one query.
+     */
+    public Map<Long, UserKeys> getAll(Collection<Long> userIds) {
+        Map<Long, UserKeys> found = new LinkedHashMap<>();
+        List<Long> missing = new ArrayList<>();
+        long generation;
+        synchronized (entries) {
+            generation = invalidations;
+            for (Long userId : userIds) {
+                UserKeys keys = entries.get(userId);
+                if (keys != null) {
+                    found.put(userId, keys);
+                } else {
+                    missing.add(userId);
+                }
+            }
+        }
+        hits.add(found.size());
+        misses.add(missing.size());
+        if (missing.isEmpty()) {
+            return found;
+        }
+
+        List<UserKeys> loaded = userPublicKeysRepository.findKeysByUserIdIn(missing);
+        synchronized (entries) {
+            // If keys changed while we were loading, what we read may be stale; serve it but do not cache it
+            if (invalidations == generation) {
+                for (UserKeys keys : loaded) {
+                    entries.put(keys.userId(), keys);
+                }
+            }
+        }
+        Map<Long, UserKeys> byId = new LinkedHashMap<>();
+        for (UserKeys keys : loaded) {
+            byId.put(keys.userId(), keys);
+        }
+        Map<Long, UserKeys> result = new LinkedHashMap<>();
+        for (Long userId : userIds) {
+            UserKeys keys = found.containsKey(userId) ? found.get(userId) : byId.get(userId);
+            if (keys != null) {
+                result.put(userId, keys);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Drop a user's cached public keys on this node and every other node.
+     */
+    public void keysChanged(long userId) {
+        invalidate(userId);
+        clusterRouter.invalidate(TOPIC, Long.toString(userId));
+    }
+
+    private void invalidate(long userId) {
+        synchronized (entries) {
+            entries.remove(userId);
+            invalidations++;
+        }
+    }
+}
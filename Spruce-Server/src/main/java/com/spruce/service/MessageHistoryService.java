@@ -0,0 +1,204 @@
+package com.spruce.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.spruce.id.SnowflakeIdGenerator;
+import com.spruce.model.Message;
+import com.spruce.repository.MessageRepository;
+import jakarta.persistence.EntityManager;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Cursor-paged reads of conversation and group history.
+ * Without a cursor the newest page is returned; "before" walks back in time and "after"
+ * walks forward. Messages in a page are always in ascending id (= time) order.
+ */
+@Service
+public class MessageHistoryService {
+
+    public static final int DEFAULT_LIMIT = 50;
+    public static final int MAX_LIMIT = 200;
+
+    /**
+     * One page of history. nextCursor is the id to pass as the same direction's cursor
+     * to continue (before for backward pages, after for forward pages), or null when exhausted.
+     */
+    public record Page(List<Message> messages, Long nextCursor, boolean hasMore) {
+    }
+
+    private static final int EXPORT_FLUSH_EVERY = 500;
+
+    // How far ahead of this node's clock another node's message ids may be
+    private static final long CLOCK_SKEW_ALLOWANCE_MS = 3_600_000;
+
+    private final MessageRepository messageRepository;
+    private final RecentMessageCache recentMessageCache;
+    private final EntityManager entityManager;
+    private final TransactionTemplate readOnlyTransaction;
+    private final JsonFactory jsonFactory = new JsonFactory()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    public MessageHistoryService(MessageRepository messageRepository, RecentMessageCache recentMessageCache,
+                                 EntityManager entityManager, PlatformTransactionManager transactionManager) {
+        this.messageRepository = messageRepository;
+        this.recentMessageCache = recentMessageCache;
+        this.entityManager = entityManager;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    public Page getConversation(Long userId, Long otherUserId, Long before, Long after, Integer limit) {
+        int pageSize = clampLimit(limit);
+        RecentMessageCache.ConversationKey key = RecentMessageCache.ConversationKey.direct(userId, otherUserId);
+        Page cached = recentMessageCache.lookup(key, before, after, pageSize);
+        if (cached != null) {
+            return cached;
+        }
+
+        long peerLow = Math.min(userId, otherUserId);
+        long peerHigh = Math.max(userId, otherUserId);
+        if (after != null) {
+            return forwardPage(messageRepository.findConversationAfter(
+                    peerLow, peerHigh, after, PageRequest.ofSize(pageSize + 1)), pageSize);
+        }
+        long generation = recentMessageCache.generation();
+        long upper = before != null ? before : Long.MAX_VALUE;
+        Page page = backwardPage(newestBefore((from, to, window) ->
+                messageRepository.findConversationBefore(peerLow, peerHigh, from, to, window), upper, pageSize + 1), pageSize);
+        if (before == null) {
+            recentMessageCache.seed(key, page.messages(), !page.hasMore(), generation);
+        }
+        return page;
+    }
+
+    public Page getGroupMessages(Long groupId, Long before, Long after, Integer limit) {
+        int pageSize = clampLimit(limit);
+        RecentMessageCache.ConversationKey key = RecentMessageCache.ConversationKey.group(groupId);
+        Page cached = recentMessageCache.lookup(key, before, after, pageSize);
+        if (cached != null) {
+            return cached;
+        }
+
+        if (after != null) {
+            return forwardPage(messageRepository.findGroupMessagesAfter(
+                    groupId, after, PageRequest.ofSize(pageSize + 1)), pageSize);
+        }
+        long generation = recentMessageCache.generation();
+        long upper = before != null ? before : Long.MAX_VALUE;
+        Page page = backwardPage(newestBefore((from, to, window) ->
+                messageRepository.findGroupMessagesBefore(groupId, from, to, window), upper, pageSize + 1), pageSize);
+        if (before == null) {
+            recentMessageCache.seed(key, page.messages(), !page.hasMore(), generation);
+        }
+        return page;
+    }
+
+    public static int clampLimit(Integer limit) {
+        if (limit == null || limit <= 0) {
+            return DEFAULT_LIMIT;
+        }
+        return Math.min(limit, MAX_LIMIT);
+    }
+
+    /**
+     * Newest-first rows with from <= id < before.
+     */
+    private interface RangeQuery {
+        List<Message> find(long from, long before, Pageable pageable);
+    }
+
+    // Messages are partitioned by the month of their id, so an open "id < before" would probe every
+    // partition. Walk back instead in windows that double in length (the cursor's month, then the
+    // two months before it, then four, ...): a busy conversation's page comes from one partition and
+    // a quiet one costs a few queries, until the window reaches the first possible id.
+    // Without a cursor the upper bound is capped just past the current time (ids are issued from
+    // the clock, so later ids do not exist), keeping the empty partitions created ahead out of it.
+    private List<Message> newestBefore(RangeQuery query, long before, int limit) {
+        List<Message> rows = new ArrayList<>(limit);
+        long upper = Math.min(before, SnowflakeIdGenerator.minIdAt(System.currentTimeMillis() + CLOCK_SKEW_ALLOWANCE_MS));
+        YearMonth month = YearMonth.from(
+                Instant.ofEpochMilli(SnowflakeIdGenerator.timestampOf(upper)).atOffset(ZoneOffset.UTC));
+        int span = 1;
+        while (rows.size() < limit) {
+            long from = SnowflakeIdGenerator.minIdAt(month.atDay(1).atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli());
+            rows.addAll(query.find(from, upper, PageRequest.ofSize(limit - rows.size())));
+            if (from == 0) {
+                break;
+            }
+            upper = from;
+            span *= 2;
+            month = month.minusMonths(span);
+        }
+        return rows;
+    }
+
+    // rows are ascending; one extra row was fetched to detect more
+    private Page forwardPage(List<Message> rows, int pageSize) {
+        boolean hasMore = rows.size() > pageSize;
+        List<Message> page = hasMore ? rows.subList(0, pageSize) : rows;
+        Long nextCursor = hasMore ? page.get(page.size() - 1).getId() : null;
+        return new Page(page, nextCursor, hasMore);
+    }
+
+    // rows are descending; flip to ascending after trimming the probe row
+    private Page backwardPage(List<Message> rows, int pageSize) {
+        boolean hasMore = rows.size() > pageSize;
+        List<Message> page = new ArrayList<>(hasMore ? rows.subList(0, pageSize) : rows);
+        Collections.reverse(page);
+        Long nextCursor = hasMore ? page.get(0).getId() : null;
+        return new Page(page, nextCursor, hasMore);
+    }
+
+    /**
+     * Write a whole conversation as NDJSON (one message object per line) in ascending order.
+     * Rows are streamed from a forward-only cursor and detached once written, so memory use
+     * does not depend on history size. Opens its own transaction because it runs on the
+     * async thread that writes the response body.
+     */
+    public void exportConversation(Long userId, Long otherUserId, OutputStream out) {
+        readOnlyTransaction.executeWithoutResult(status -> {
+            try (Stream<Message> messages = messageRepository.streamConversation(
+                    Math.min(userId, otherUserId), Math.max(userId, otherUserId));
+                 JsonGenerator json = jsonFactory.createGenerator(out)) {
+                int written = 0;
+                for (Message msg : (Iterable<Message>) messages::iterator) {
+                    writeExportLine(json, msg);
+                    entityManager.detach(msg);
+                    if (++written % EXPORT_FLUSH_EVERY == 0) {
+                        json.flush();
+                    }
+                }
+                json.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private void writeExportLine(JsonGenerator json, Message msg) throws IOException {
+        json.writeStartObject();
+        json.writeNumberField("id", msg.getId());
+        json.writeNumberField("senderId", msg.getSenderId());
+        json.writeNumberField("receiverId", msg.getReceiverId());
+        json.writeStringField("ciphertext", msg.getCiphertext() != null ? msg.getCiphertext() : "");
+        json.writeStringField("iv", msg.getIv() != null ? msg.getIv() : "");
+        json.writeNumberField("ts", msg.getTimestamp() != null ? msg.getTimestamp().toEpochSecond(ZoneOffset.UTC) * 1000 : 0L);
+        json.writeEndObject();
+        json.writeRaw('\n');
+    }
+}
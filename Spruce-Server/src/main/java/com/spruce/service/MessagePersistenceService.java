@@ -0,0 +1,216 @@
+package com.spruce.service;
+
+import com.spruce.id.SnowflakeIdGenerator;
+import com.spruce.model.Message;
+import com.spruce.repository.MessageRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind persistence stage for messages.
+ * Both ingest paths (WebSocket relay and REST send) submit here instead of calling
+ * MessageRepository.save directly. Writer threads drain the bounded queue and commit
+ * up to batch-size messages per transaction, so a burst costs one commit instead of one per message.
+ */
+@Service
+public class MessagePersistenceService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessagePersistenceService.class);
+
+    /**
+     * What happens when the queue is full:
+     * CALLER_RUNS persists synchronously on the submitting thread (backpressure, nothing lost),
+     * REJECT fails the returned future immediately so the caller can report an error.
+     */
+    public enum OverflowPolicy { CALLER_RUNS, REJECT }
+
+    private final MessageRepository messageRepository;
+    private final RecentMessageCache recentMessageCache;
+    private final SnowflakeIdGenerator idGenerator;
+    private final TransactionTemplate transactionTemplate;
+    private final BlockingQueue<PendingWrite> queue;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final int writerThreads;
+    private final OverflowPolicy overflowPolicy;
+    private final List<Thread> writers = new ArrayList<>();
+    private volatile boolean running;
+
+    public MessagePersistenceService(
+            MessageRepository messageRepository,
+            RecentMessageCache recentMessageCache,
+            SnowflakeIdGenerator idGenerator,
+            PlatformTransactionManager transactionManager,
+            @Value("${app.messages.write-behind.queue-capacity:10000}") int queueCapacity,
+            @Value("${app.messages.write-behind.batch-size:200}") int batchSize,
+            @Value("${app.messages.write-behind.flush-interval-ms:10}") long flushIntervalMs,
+            @Value("${app.messages.write-behind.writer-threads:2}") int writerThreads,
+            @Value("${app.messages.write-behind.overflow-policy:CALLER_RUNS}") OverflowPolicy overflowPolicy) {
+        this.messageRepository = messageRepository;
+        this.recentMessageCache = recentMessageCache;
+        this.idGenerator = idGenerator;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.writerThreads = writerThreads;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        for (int i = 0; i < writerThreads; i++) {
+            Thread writer = new Thread(this::writeLoop, "message-writer-" + i);
+            writer.setDaemon(true);
+            writer.start();
+            writers.add(writer);
+        }
+        logger.info("Message write-behind started: {} writers, batch {} / {}ms, queue {}, overflow {}",
+                    writerThreads, batchSize, flushIntervalMs, queue.remainingCapacity(), overflowPolicy);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        for (Thread writer : writers) {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        // Anything still queued after the writers exit is flushed on the shutdown thread
+        List<PendingWrite> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            flush(remaining);
+        }
+    }
+
+    /**
+     * Queue a message for persistence. Its id is assigned before this returns, so callers can
+     * relay it right away; the returned future completes with the saved message once its batch
+     * has committed.
+     */
+    public CompletableFuture<Message> submit(Message message) {
+        if (message.getId() == null) {
+            message.setId(idGenerator.nextId());
+        }
+        PendingWrite write = new PendingWrite(message);
+        if (running && queue.offer(write)) {
+            return write.future;
+        }
+
+        if (overflowPolicy == OverflowPolicy.REJECT) {
+            write.future.completeExceptionally(new RejectedExecutionException("Message persistence queue is full"));
+        } else {
+            logger.debug("Message persistence queue full, persisting on caller thread");
+            flush(List.of(write));
+        }
+        return write.future;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    private void writeLoop() {
+        List<PendingWrite> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingWrite first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                // Keep collecting until the batch is full or the flush interval has elapsed
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    PendingWrite next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                logger.error("Unexpected error in message writer", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<PendingWrite> batch) {
+        List<Message> messages = new ArrayList<>(batch.size());
+        for (PendingWrite write : batch) {
+            messages.add(write.message);
+        }
+
+        try {
+            List<Message> saved = transactionTemplate.execute(status -> messageRepository.saveAll(messages));
+            Set<RecentMessageCache.ConversationKey> touched = new LinkedHashSet<>();
+            for (int i = 0; i < batch.size(); i++) {
+                recentMessageCache.append(saved.get(i));
+                touched.add(RecentMessageCache.ConversationKey.of(saved.get(i)));
+                batch.get(i).future.complete(saved.get(i));
+            }
+            touched.remove(null);
+            recentMessageCache.conversationsChanged(touched);
+            logger.debug("Committed batch of {} messages", batch.size());
+        } catch (Exception e) {
+            if (batch.size() == 1) {
+                batch.get(0).future.completeExceptionally(e);
+                return;
+            }
+            // Retry individually so one bad row does not fail the whole batch
+            logger.warn("Batch insert of {} messages failed, retrying individually", batch.size(), e);
+            for (PendingWrite write : batch) {
+                write.message.setStored(false); // the failed batch may have marked it
+                try {
+                    Message saved = transactionTemplate.execute(status -> messageRepository.save(write.message));
+                    recentMessageCache.append(saved);
+                    RecentMessageCache.ConversationKey key = RecentMessageCache.ConversationKey.of(saved);
+                    if (key != null) {
+                        recentMessageCache.conversationsChanged(List.of(key));
+                    }
+                    write.future.complete(saved);
+                } catch (Exception single) {
+                    write.future.completeExceptionally(single);
+                }
+            }
+        }
+    }
+
+    private static final class PendingWrite {
+        final Message message;
+        final CompletableFuture<Message> future = new CompletableFuture<>();
+
+        PendingWrite(Message message) {
+            this.message = message;
+        }
+    }
+}
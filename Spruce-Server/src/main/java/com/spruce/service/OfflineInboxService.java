@@ -0,0 +1,343 @@
+package com.spruce.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.spruce.model.Message;
+import com.spruce.model.PendingDelivery;
+import com.spruce.repository.PendingDeliveryRepository;
+import com.spruce.websocket.OutboundSession;
+import com.spruce.websocket.SessionRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.socket.TextMessage;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Store-and-forward inbox for direct messages whose receiver was offline on every node.
+ * Entries are drained over the WebSocket right after the receiver authenticates and are deleted
+ * only when the client acknowledges them, so a reconnecting client receives exactly its backlog
+ * without walking conversation history. Under the SPILL outbound overflow policy it also takes
+ * the direct messages pushed out of a connected receiver's full buffer.
+ * <p>
+ * Delivery is acknowledgement-paced: each session has at most one unacknowledged "inbox" frame,
+ * and the next page is sent when the client acknowledges it, so a large backlog never floods the
+ * outbound buffer. A page not acknowledged within the ack timeout (lost to an overflow, or sent
+ * to a client that went quiet) is sent again. All work for one user runs on the same worker
+ * thread, so pages, acknowledgements and new entries of a user never race each other.
+ */
+@Service
+public class OfflineInboxService implements OutboundSession.SpillHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(OfflineInboxService.class);
+
+    // Spilled entries can be stored before their message commits; they are looked for again a few times
+    private static final int DELIVERY_ATTEMPTS = 4;
+    private static final long DELIVERY_RETRY_MS = 250;
+
+    private final PendingDeliveryRepository pendingDeliveryRepository;
+    private final SessionRegistry sessionRegistry;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate readOnlyTransaction;
+    private final int batchSize;
+    private final int frameBytes;
+    private final long ackTimeoutMs;
+    private final ScheduledExecutorService[] workers;
+    private final Map<OutboundSession, Set<Long>> awaitingAck = new ConcurrentHashMap<>();
+    private final Queue<PendingDelivery> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    private final Counter enqueued;
+    private final Counter acknowledged;
+    private final Counter resent;
+
+    public OfflineInboxService(PendingDeliveryRepository pendingDeliveryRepository,
+                               SessionRegistry sessionRegistry,
+                               JdbcTemplate jdbcTemplate,
+                               PlatformTransactionManager transactionManager,
+                               @Value("${app.messages.inbox.batch-size:100}") int batchSize,
+                               @Value("${app.messages.inbox.frame-bytes:1048576}") int frameBytes,
+                               @Value("${app.messages.inbox.ack-timeout-ms:30000}") long ackTimeoutMs,
+                               @Value("${app.messages.inbox.threads:2}") int threads,
+                               MeterRegistry meterRegistry) {
+        this.pendingDeliveryRepository = pendingDeliveryRepository;
+        this.sessionRegistry = sessionRegistry;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.batchSize = batchSize;
+        this.frameBytes = frameBytes;
+        this.ackTimeoutMs = ackTimeoutMs;
+        this.workers = new ScheduledExecutorService[Math.max(threads, 1)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "offline-inbox");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        this.enqueued = Counter.builder("spruce.messages.inbox.entries")
+                .tag("result", "enqueued").register(meterRegistry);
+        this.acknowledged = Counter.builder("spruce.messages.inbox.entries")
+                .tag("result", "acknowledged").register(meterRegistry);
+        this.resent = Counter.builder("spruce.messages.inbox.pages")
+                .tag("result", "resent").register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (ScheduledExecutorService worker : workers) {
+            worker.shutdown();
+        }
+    }
+
+    /**
+     * Record a persisted message for a receiver who was not connected. Inserts are batched on the inbox worker.
+     */
+    public void enqueue(long userId, long messageId) {
+        pendingWrites.add(new PendingDelivery(userId, messageId));
+        if (flushScheduled.compareAndSet(false, true)) {
+            workers[0].execute(this::flushPendingWrites);
+        }
+    }
+
+    @Override
+    public void spill(long userId, long messageId) {
+        enqueue(userId, messageId);
+    }
+
+    /**
+     * Start sending the session's pending entries, one page of up to batch-size messages per acknowledgement.
+     */
+    public void drain(OutboundSession target) {
+        long userId = target.getUserId();
+        workerFor(userId).execute(() -> {
+            try {
+                if (!awaitingAck.containsKey(target)) {
+                    sendNextPage(target);
+                }
+            } catch (Exception e) {
+                logger.error("Failed to drain inbox of user {}", userId, e);
+            }
+        });
+    }
+
+    /**
+     * Delete entries the client has acknowledged and send the next page to sessions whose page is complete.
+     */
+    public void acknowledge(long userId, Collection<Long> messageIds) {
+        if (messageIds.isEmpty()) {
+            return;
+        }
+        workerFor(userId).execute(() -> {
+            try {
+                Integer deleted = transactionTemplate.execute(status ->
+                        pendingDeliveryRepository.deleteDelivered(userId, messageIds));
+                acknowledged.increment(deleted != null ? deleted : 0);
+                for (OutboundSession session : sessionRegistry.get(userId)) {
+                    Set<Long> page = awaitingAck.get(session);
+                    if (page != null && page.removeAll(messageIds) && page.isEmpty()) {
+                        awaitingAck.remove(session);
+                        sendNextPage(session);
+                    }
+                }
+            } catch (Exception e) {
+                logger.error("Failed to clear {} inbox entries of user {}", messageIds.size(), userId, e);
+            }
+        });
+    }
+
+    private ScheduledExecutorService workerFor(long userId) {
+        return workers[(int) Math.floorMod(userId, (long) workers.length)];
+    }
+
+    private void flushPendingWrites() {
+        flushScheduled.set(false);
+        List<PendingDelivery> batch = new ArrayList<>();
+        PendingDelivery next;
+        while ((next = pendingWrites.poll()) != null) {
+            batch.add(next);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<PendingDelivery> stored;
+        try {
+            insert(batch);
+            stored = batch;
+        } catch (Exception e) {
+            // Retry individually so one bad row does not drop the whole batch
+            logger.warn("Batch insert of {} inbox entries failed, retrying individually", batch.size(), e);
+            stored = new ArrayList<>(batch.size());
+            for (PendingDelivery entry : batch) {
+                try {
+                    insert(List.of(entry));
+                    stored.add(entry);
+                } catch (Exception single) {
+                    logger.error("Failed to store inbox entry of message {} for user {}",
+                                 entry.getMessageId(), entry.getUserId(), single);
+                }
+            }
+        }
+        enqueued.increment(stored.size());
+
+        // A receiver that is connected now (it reconnected after the relay missed it, or its buffer
+        // spilled) gets the new entries through its own pages
+        Map<Long, List<Long>> byReceiver = new LinkedHashMap<>();
+        for (PendingDelivery entry : stored) {
+            byReceiver.computeIfAbsent(entry.getUserId(), k -> new ArrayList<>()).add(entry.getMessageId());
+        }
+        for (Map.Entry<Long, List<Long>> receiver : byReceiver.entrySet()) {
+            if (sessionRegistry.get(receiver.getKey()).length > 0) {
+                workerFor(receiver.getKey()).execute(() -> deliver(receiver.getKey(), receiver.getValue(), 1));
+            }
+        }
+    }
+
+    // One multi-row statement; entries already pending (a repeated enqueue) are skipped by the unique key
+    private void insert(List<PendingDelivery> entries) {
+        StringJoiner sql = new StringJoiner(", ", "INSERT IGNORE INTO pending_deliveries (user_id, message_id) VALUES ", "");
+        Object[] args = new Object[entries.size() * 2];
+        int i = 0;
+        for (PendingDelivery entry : entries) {
+            sql.add("(?, ?)");
+            args[i++] = entry.getUserId();
+            args[i++] = entry.getMessageId();
+        }
+        jdbcTemplate.update(sql.toString(), args);
+    }
+
+    private void deliver(long userId, List<Long> messageIds, int attempt) {
+        try {
+            OutboundSession[] sessions = sessionRegistry.get(userId);
+            if (sessions.length == 0) {
+                return;
+            }
+            for (OutboundSession session : sessions) {
+                if (!awaitingAck.containsKey(session)) {
+                    sendNextPage(session);
+                }
+            }
+            List<Message> visible = readOnlyTransaction.execute(status ->
+                    pendingDeliveryRepository.findPendingMessagesIn(userId, messageIds));
+            if (visible.size() < messageIds.size() && attempt < DELIVERY_ATTEMPTS) {
+                Set<Long> missing = new HashSet<>(messageIds);
+                for (Message msg : visible) {
+                    missing.remove(msg.getId());
+                }
+                workerFor(userId).schedule(() -> deliver(userId, List.copyOf(missing), attempt + 1),
+                                           DELIVERY_RETRY_MS << attempt, TimeUnit.MILLISECONDS);
+            }
+        } catch (Exception e) {
+            logger.error("Failed to deliver new inbox entries to user {}", userId, e);
+        }
+    }
+
+    // Runs on the user's worker; the caller has checked that no page is awaiting acknowledgement
+    private void sendNextPage(OutboundSession target) {
+        if (!target.isOpen()) {
+            awaitingAck.remove(target);
+            return;
+        }
+        long userId = target.getUserId();
+        List<Message> pending = readOnlyTransaction.execute(status ->
+                pendingDeliveryRepository.findPendingMessages(userId, 0L, PageRequest.of(0, batchSize + 1)));
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Message> page = fitFrame(pending);
+        boolean hasMore = pending.size() > page.size();
+        Set<Long> ids = new HashSet<>();
+        for (Message msg : page) {
+            ids.add(msg.getId());
+        }
+        awaitingAck.put(target, ids);
+        target.send(new TextMessage(inboxFrame(page, hasMore)));
+        logger.debug("Sent {} pending messages to user {}, more: {}", page.size(), userId, hasMore);
+        workerFor(userId).schedule(() -> resendIfUnacknowledged(target, ids), ackTimeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void resendIfUnacknowledged(OutboundSession target, Set<Long> page) {
+        try {
+            if (awaitingAck.get(target) != page) {
+                return;
+            }
+            awaitingAck.remove(target);
+            if (target.isOpen()) {
+                resent.increment();
+                sendNextPage(target);
+            }
+        } catch (Exception e) {
+            logger.error("Failed to resend inbox page to user {}", target.getUserId(), e);
+        }
+    }
+
+    // At most batch-size messages and, beyond the first, frame-bytes of base64 payload
+    private List<Message> fitFrame(List<Message> pending) {
+        int count = 0;
+        long bytes = 0;
+        for (Message msg : pending) {
+            bytes += msg.getCiphertext().length() + (msg.getIv() != null ? msg.getIv().length() : 0) + 160;
+            if (count == batchSize || (count > 0 && bytes > frameBytes)) {
+                break;
+            }
+            count++;
+        }
+        return pending.subList(0, count);
+    }
+
+    private String inboxFrame(List<Message> messages, boolean hasMore) {
+        StringWriter out = new StringWriter();
+        try (JsonGenerator json = jsonFactory.createGenerator(out)) {
+            json.writeStartObject();
+            json.writeStringField("type", "inbox");
+            json.writeArrayFieldStart("messages");
+            for (Message msg : messages) {
+                json.writeStartObject();
+                json.writeStringField("type", "message");
+                json.writeNumberField("id", msg.getId());
+                json.writeNumberField("senderId", msg.getSenderId());
+                json.writeNumberField("receiverId", msg.getReceiverId());
+                json.writeStringField("ciphertext", msg.getCiphertext());
+                json.writeStringField("iv", msg.getIv());
+                json.writeNumberField("ts", msg.getTimestamp() != null ? msg.getTimestamp().toEpochSecond(ZoneOffset.UTC) * 1000 : 0L);
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+            json.writeBooleanField("hasMore", hasMore);
+            json.writeEndObject();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not serialize inbox frame", e);
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,346 @@
+package com.spruce.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.spruce.cluster.ClusterRouter;
+import com.spruce.websocket.OutboundSession;
+import com.spruce.websocket.SessionRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.TextMessage;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Who is online, kept in memory and pushed to contacts over the WebSocket.
+ *
+ * Connects and disconnects only mark a user dirty. Every flush interval the flusher compares each
+ * dirty user's session count with what it last published, so a disconnect followed by a reconnect
+ * within the interval publishes nothing. Real changes are sent to the other nodes in one frame,
+ * and every node then sends each locally connected contact at most one "presence" frame per
+ * interval listing all of that contact's changes. A reconnect storm therefore costs each client
+ * at most one frame per interval, however many of its contacts flapped.
+ *
+ * All state changes happen on the single flusher thread; reads are lock-free. The flusher only
+ * reads contact lists that are already cached; missing ones are loaded from MySQL on separate
+ * loader threads and the affected notifications follow once they arrive. A connecting user's
+ * list is loaded there too (which warms it for their later changes) before the snapshot is sent.
+ */
+@Service
+public class PresenceService implements ClusterRouter.PresenceListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(PresenceService.class);
+
+    private final SessionRegistry sessionRegistry;
+    private final ContactGraph contactGraph;
+    private final ClusterRouter clusterRouter;
+    private final long flushIntervalMs;
+    private final ScheduledExecutorService flusher;
+    private final ExecutorService loader;
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+    // Users this node has published as online
+    private final Set<Long> localOnline = ConcurrentHashMap.newKeySet();
+    // Users online on other nodes, with the nodes they are on
+    private final Map<Long, Set<String>> remoteOnline = new ConcurrentHashMap<>();
+
+    private final Counter changes;
+    private final Counter frames;
+
+    public PresenceService(SessionRegistry sessionRegistry,
+                           ContactGraph contactGraph,
+                           ClusterRouter clusterRouter,
+                           @Value("${app.presence.flush-interval-ms:1000}") long flushIntervalMs,
+                           @Value("${app.presence.load-threads:2}") int loadThreads,
+                           MeterRegistry meterRegistry) {
+        this.sessionRegistry = sessionRegistry;
+        this.contactGraph = contactGraph;
+        this.clusterRouter = clusterRouter;
+        this.flushIntervalMs = flushIntervalMs;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "presence-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger loaderNumber = new AtomicInteger();
+        this.loader = Executors.newFixedThreadPool(loadThreads, runnable -> {
+            Thread thread = new Thread(runnable, "presence-load-" + loaderNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.changes = Counter.builder("spruce.presence.changes").register(meterRegistry);
+        this.frames = Counter.builder("spruce.presence.frames").register(meterRegistry);
+        Gauge.builder("spruce.presence.online", localOnline, Set::size).register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        clusterRouter.setPresenceListener(this);
+        flusher.scheduleWithFixedDelay(this::flushSafely, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        flusher.shutdown();
+        loader.shutdown();
+    }
+
+    /**
+     * Call after a session has been registered or unregistered.
+     */
+    public void sessionChanged(long userId) {
+        dirty.add(userId);
+    }
+
+    public boolean isOnline(long userId) {
+        if (localOnline.contains(userId)) {
+            return true;
+        }
+        Set<String> nodes = remoteOnline.get(userId);
+        return nodes != null && !nodes.isEmpty();
+    }
+
+    /**
+     * Tell a newly connected client which of its contacts are online now; later frames are deltas.
+     * Returns at once: the contact list is loaded on a loader thread, and the snapshot is sent from
+     * the flusher so it cannot overtake a change it does not include.
+     */
+    public void sendSnapshot(OutboundSession target) {
+        loader.execute(() -> {
+            long[] contacts;
+            try {
+                contacts = contactGraph.contactsOf(target.getUserId());
+            } catch (RuntimeException e) {
+                logger.warn("Could not load contacts of user {} for the presence snapshot: {}",
+                        target.getUserId(), e.getMessage());
+                return;
+            }
+            flusher.execute(() -> {
+                List<Long> online = new ArrayList<>();
+                for (long contactId : contacts) {
+                    if (isOnline(contactId)) {
+                        online.add(contactId);
+                    }
+                }
+                target.send(new TextMessage(presenceFrame(online, List.of(), true)));
+                frames.increment();
+            });
+        });
+    }
+
+    @Override
+    public void remoteChanges(String node, String encoded, boolean snapshot) {
+        flusher.execute(() -> {
+            Map<Long, Boolean> before = new HashMap<>();
+            if (snapshot) {
+                // Everything we knew about the node is replaced
+                for (Iterator<Map.Entry<Long, Set<String>>> it = remoteOnline.entrySet().iterator(); it.hasNext(); ) {
+                    Map.Entry<Long, Set<String>> entry = it.next();
+                    if (entry.getValue().contains(node)) {
+                        before.putIfAbsent(entry.getKey(), isOnline(entry.getKey()));
+                        entry.getValue().remove(node);
+                        if (entry.getValue().isEmpty()) {
+                            it.remove();
+                        }
+                    }
+                }
+            }
+            if (encoded != null && !encoded.isEmpty()) {
+                for (String change : encoded.split(",")) {
+                    long userId = Long.parseLong(change.substring(1));
+                    before.putIfAbsent(userId, isOnline(userId));
+                    if (change.charAt(0) == '+') {
+                        remoteOnline.computeIfAbsent(userId, k -> ConcurrentHashMap.newKeySet()).add(node);
+                    } else {
+                        remoteOnline.computeIfPresent(userId, (k, nodes) -> {
+                            nodes.remove(node);
+                            return nodes.isEmpty() ? null : nodes;
+                        });
+                    }
+                }
+            }
+            notifyContacts(effectiveChanges(before));
+        });
+    }
+
+    @Override
+    public void snapshotRequested(String node) {
+        flusher.execute(() -> {
+            StringJoiner online = new StringJoiner(",");
+            for (Long userId : localOnline) {
+                online.add("+" + userId);
+            }
+            clusterRouter.sendPresenceSnapshot(node, online.toString());
+        });
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (Exception e) {
+            logger.error("Presence flush failed", e);
+        }
+    }
+
+    private void flush() {
+        if (dirty.isEmpty()) {
+            return;
+        }
+        Map<Long, Boolean> before = new HashMap<>();
+        StringJoiner published = new StringJoiner(",");
+        for (Iterator<Long> it = dirty.iterator(); it.hasNext(); ) {
+            long userId = it.next();
+            it.remove();
+            boolean connected = sessionRegistry.isOnline(userId);
+            if (connected == localOnline.contains(userId)) {
+                continue; // flapped back within the interval
+            }
+            before.put(userId, isOnline(userId));
+            if (connected) {
+                localOnline.add(userId);
+                published.add("+" + userId);
+            } else {
+                localOnline.remove(userId);
+                published.add("-" + userId);
+            }
+        }
+        if (before.isEmpty()) {
+            return;
+        }
+        clusterRouter.publishPresence(published.toString());
+        notifyContacts(effectiveChanges(before));
+    }
+
+    // Users whose cluster-wide state differs from what it was, with their new state
+    private Map<Long, Boolean> effectiveChanges(Map<Long, Boolean> before) {
+        Map<Long, Boolean> changed = new LinkedHashMap<>();
+        for (Map.Entry<Long, Boolean> entry : before.entrySet()) {
+            boolean now = isOnline(entry.getKey());
+            if (now != entry.getValue()) {
+                changed.put(entry.getKey(), now);
+            }
+        }
+        return changed;
+    }
+
+    private void notifyContacts(Map<Long, Boolean> changed) {
+        if (changed.isEmpty()) {
+            return;
+        }
+        changes.increment(changed.size());
+
+        Map<Long, long[]> contacts = new HashMap<>();
+        List<Long> uncached = new ArrayList<>();
+        for (Long userId : changed.keySet()) {
+            long[] cached = contactGraph.cachedContactsOf(userId);
+            if (cached != null) {
+                contacts.put(userId, cached);
+            } else {
+                uncached.add(userId);
+            }
+        }
+        send(changed, contacts);
+        if (!uncached.isEmpty()) {
+            loader.execute(() -> notifyAfterLoading(uncached));
+        }
+    }
+
+    // On a loader thread. By the time the lists are loaded a user may have changed again, so the
+    // notification carries their state at the time it is sent.
+    private void notifyAfterLoading(List<Long> userIds) {
+        Map<Long, long[]> contacts = new HashMap<>();
+        try {
+            for (Long userId : userIds) {
+                contacts.put(userId, contactGraph.contactsOf(userId));
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Could not load contacts for {} presence changes: {}", userIds.size(), e.getMessage());
+            return;
+        }
+        flusher.execute(() -> {
+            Map<Long, Boolean> current = new LinkedHashMap<>();
+            for (Long userId : userIds) {
+                current.put(userId, isOnline(userId));
+            }
+            send(current, contacts);
+        });
+    }
+
+    // Group the changes by locally connected recipient and send each of them one frame
+    private void send(Map<Long, Boolean> changed, Map<Long, long[]> contacts) {
+        Map<Long, Batch> batches = new HashMap<>();
+        for (Map.Entry<Long, long[]> entry : contacts.entrySet()) {
+            boolean online = changed.get(entry.getKey());
+            for (long contactId : entry.getValue()) {
+                if (!sessionRegistry.isOnline(contactId)) {
+                    continue;
+                }
+                Batch batch = batches.computeIfAbsent(contactId, k -> new Batch(new ArrayList<>(), new ArrayList<>()));
+                (online ? batch.online() : batch.offline()).add(entry.getKey());
+            }
+        }
+
+        for (Map.Entry<Long, Batch> batch : batches.entrySet()) {
+            TextMessage frame = new TextMessage(presenceFrame(batch.getValue().online(), batch.getValue().offline(), false));
+            for (OutboundSession session : sessionRegistry.get(batch.getKey())) {
+                session.send(frame);
+                frames.increment();
+            }
+        }
+        logger.debug("Published {} presence changes to {} recipients", changed.size(), batches.size());
+    }
+
+    private String presenceFrame(List<Long> online, List<Long> offline, boolean snapshot) {
+        StringWriter out = new StringWriter();
+        try (JsonGenerator json = jsonFactory.createGenerator(out)) {
+            json.writeStartObject();
+            json.writeStringField("type", "presence");
+            if (snapshot) {
+                json.writeBooleanField("snapshot", true);
+            }
+            json.writeArrayFieldStart("online");
+            for (Long id : online) {
+                json.writeNumber(id);
+            }
+            json.writeEndArray();
+            json.writeArrayFieldStart("offline");
+            for (Long id : offline) {
+                json.writeNumber(id);
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not serialize presence frame", e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Changes of one recipient's contacts, by direction.
+     */
+    private record Batch(List<Long> online, List<Long> offline) {
+    }
+}
@@ -0,0 +1,347 @@
+package com.spruce.service;
+
+import com.spruce.cluster.ClusterRouter;
+import com.spruce.model.Message;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hot-tail cache of the most recent messages per conversation (user pair or group).
+ * Each conversation keeps a bounded, id-ordered tail that is fed by the write path, so it always
+ * holds every message newer than its oldest entry. History pages that fall entirely inside that
+ * tail are answered from memory; anything else falls through to MySQL.
+ * Conversations are evicted least-recently-used once the global byte budget is exceeded.
+ * Other nodes drop the tails of conversations that gained messages here, and trim expired
+ * messages when retention runs (topic {@value #TOPIC}; key = comma-separated d:low:high or
+ * g:groupId:groupId conversations, or &lt;id for an expiry).
+ */
+@Service
+public class RecentMessageCache {
+
+    /**
+     * Unordered user pair for direct messages, or a group id. Normalized so (a, b) and (b, a) are equal.
+     */
+    public record ConversationKey(long low, long high, boolean group) {
+        public static ConversationKey direct(long userA, long userB) {
+            return new ConversationKey(Math.min(userA, userB), Math.max(userA, userB), false);
+        }
+
+        public static ConversationKey group(long groupId) {
+            return new ConversationKey(groupId, groupId, true);
+        }
+
+        public static ConversationKey of(Message message) {
+            if (message.getGroupId() != null) {
+                return group(message.getGroupId());
+            }
+            if (message.getReceiverId() == null) {
+                return null;
+            }
+            return direct(message.getSenderId(), message.getReceiverId());
+        }
+    }
+
+    static final String TOPIC = "recent-messages";
+
+    private static final long ENTRY_OVERHEAD_BYTES = 160;
+
+    private final ClusterRouter clusterRouter;
+    private final int perConversation;
+    private final long maxBytes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    // Bumped whenever a tail is dropped, so a page read before that is not seeded afterwards
+    private final AtomicLong modifications = new AtomicLong();
+
+    // Access-ordered for LRU; every access goes through the monitor on this map
+    private final LinkedHashMap<ConversationKey, Tail> tails = new LinkedHashMap<>(256, 0.75f, true);
+    private long totalBytes;
+
+    public RecentMessageCache(
+            @Value("${app.messages.recent-cache.per-conversation:100}") int perConversation,
+            @Value("${app.messages.recent-cache.max-bytes:67108864}") long maxBytes,
+            ClusterRouter clusterRouter,
+            MeterRegistry meterRegistry) {
+        this.clusterRouter = clusterRouter;
+        this.perConversation = perConversation;
+        this.maxBytes = maxBytes;
+        FunctionCounter.builder("spruce.messages.recent_cache.requests", hits, LongAdder::sum)
+                .tag("result", "hit").register(meterRegistry);
+        FunctionCounter.builder("spruce.messages.recent_cache.requests", misses, LongAdder::sum)
+                .tag("result", "miss").register(meterRegistry);
+        Gauge.builder("spruce.messages.recent_cache.bytes", this, RecentMessageCache::getTotalBytes)
+                .register(meterRegistry);
+        Gauge.builder("spruce.messages.recent_cache.conversations", this, RecentMessageCache::getConversationCount)
+                .register(meterRegistry);
+        clusterRouter.addInvalidationListener(TOPIC, this::apply);
+    }
+
+    /**
+     * Record a newly persisted message at the tail of its conversation.
+     */
+    public void append(Message message) {
+        ConversationKey key = ConversationKey.of(message);
+        if (key == null || message.getId() == null) {
+            return;
+        }
+        synchronized (tails) {
+            Tail tail = tails.computeIfAbsent(key, k -> new Tail());
+            long before = tail.bytes;
+            tail.insert(message, perConversation);
+            totalBytes += tail.bytes - before;
+            evictIfNeeded();
+        }
+    }
+
+    /**
+     * Read before loading a page to seed with; see {@link #seed}.
+     */
+    public long generation() {
+        return modifications.get();
+    }
+
+    /**
+     * Seed a conversation from the newest page read from the database.
+     * complete means the page reached the start of the conversation (nothing older exists).
+     * Skipped if a tail was dropped since generation was read: the page may miss messages that
+     * were only in the dropped tail.
+     */
+    public void seed(ConversationKey key, List<Message> newestPage, boolean complete, long generation) {
+        synchronized (tails) {
+            if (modifications.get() != generation) {
+                return;
+            }
+            Tail tail = tails.computeIfAbsent(key, k -> new Tail());
+            long before = tail.bytes;
+            long trimmedBefore = tail.trimmed;
+            for (Message message : newestPage) {
+                tail.insert(message, perConversation);
+            }
+            // Only complete if nothing was dropped off the front while merging
+            if (complete && tail.trimmed == trimmedBefore) {
+                tail.complete = true;
+            }
+            totalBytes += tail.bytes - before;
+            evictIfNeeded();
+        }
+    }
+
+    /**
+     * Forget a conversation's tail, e.g. when another node committed messages to it.
+     */
+    public void invalidate(ConversationKey key) {
+        synchronized (tails) {
+            Tail tail = tails.remove(key);
+            if (tail != null) {
+                totalBytes -= tail.bytes;
+            }
+            modifications.incrementAndGet();
+        }
+    }
+
+    /**
+     * Drop cached messages with ids below the given id from every tail, after retention deleted
+     * them from the database.
+     */
+    public void trimBelow(long id) {
+        synchronized (tails) {
+            Iterator<Tail> all = tails.values().iterator();
+            while (all.hasNext()) {
+                Tail tail = all.next();
+                long before = tail.bytes;
+                tail.removeBelow(id);
+                totalBytes += tail.bytes - before;
+                if (tail.messages.isEmpty()) {
+                    all.remove();
+                }
+            }
+            modifications.incrementAndGet();
+        }
+    }
+
+    /**
+     * Let the other nodes drop their tails of conversations that just gained committed messages.
+     * This node's tails were already appended to.
+     */
+    public void conversationsChanged(Collection<ConversationKey> keys) {
+        if (keys.isEmpty() || !clusterRouter.isEnabled()) {
+            return;
+        }
+        StringJoiner encoded = new StringJoiner(",");
+        for (ConversationKey key : keys) {
+            encoded.add((key.group() ? "g" : "d") + ":" + key.low() + ":" + key.high());
+        }
+        clusterRouter.invalidate(TOPIC, encoded.toString());
+    }
+
+    /**
+     * Drop cached messages that retention removed, on this node and every other node.
+     */
+    public void messagesExpired(long belowId) {
+        trimBelow(belowId);
+        clusterRouter.invalidate(TOPIC, "<" + belowId);
+    }
+
+    private void apply(String key) {
+        if (key.startsWith("<")) {
+            trimBelow(Long.parseLong(key.substring(1)));
+            return;
+        }
+        for (String conversation : key.split(",")) {
+            String[] parts = conversation.split(":");
+            invalidate(new ConversationKey(Long.parseLong(parts[1]), Long.parseLong(parts[2]), "g".equals(parts[0])));
+        }
+    }
+
+    /**
+     * Answer a history page from memory, or return null if the window is not fully cached.
+     * Cursor semantics match {@link MessageHistoryService}.
+     */
+    public MessageHistoryService.Page lookup(ConversationKey key, Long before, Long after, int limit) {
+        MessageHistoryService.Page page;
+        synchronized (tails) {
+            Tail tail = tails.get(key);
+            page = tail != null ? tail.window(before, after, limit) : null;
+        }
+        (page != null ? hits : misses).increment();
+        return page;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getTotalBytes() {
+        synchronized (tails) {
+            return totalBytes;
+        }
+    }
+
+    public int getConversationCount() {
+        synchronized (tails) {
+            return tails.size();
+        }
+    }
+
+    private void evictIfNeeded() {
+        Iterator<Tail> eldest = tails.values().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            totalBytes -= eldest.next().bytes;
+            eldest.remove();
+            modifications.incrementAndGet();
+        }
+    }
+
+    private static long sizeOf(Message message) {
+        long size = ENTRY_OVERHEAD_BYTES;
+        if (message.getCiphertext() != null) size += message.getCiphertext().length();
+        if (message.getIv() != null) size += message.getIv().length();
+        if (message.getMetadata() != null) size += message.getMetadata().length();
+        return size;
+    }
+
+    /**
+     * Ascending-by-id tail of one conversation. Guarded by the cache monitor.
+     */
+    private static final class Tail {
+        final ArrayList<Message> messages = new ArrayList<>();
+        long bytes;
+        boolean complete;
+        long trimmed;
+
+        void insert(Message message, int capacity) {
+            // Writer threads can complete slightly out of order, so insert from the back
+            int i = messages.size();
+            while (i > 0 && messages.get(i - 1).getId() > message.getId()) {
+                i--;
+            }
+            if (i > 0 && messages.get(i - 1).getId().equals(message.getId())) {
+                return;
+            }
+            if (messages.size() >= capacity && i == 0) {
+                // older than everything we keep
+                complete = false;
+                trimmed++;
+                return;
+            }
+            messages.add(i, message);
+            bytes += sizeOf(message);
+            while (messages.size() > capacity) {
+                bytes -= sizeOf(messages.remove(0));
+                complete = false;
+                trimmed++;
+            }
+        }
+
+        // Whatever is older no longer exists, so completeness is unchanged
+        void removeBelow(long id) {
+            int count = firstIndexAbove(id - 1);
+            for (Message message : messages.subList(0, count)) {
+                bytes -= sizeOf(message);
+            }
+            messages.subList(0, count).clear();
+        }
+
+        MessageHistoryService.Page window(Long before, Long after, int limit) {
+            if (messages.isEmpty()) {
+                return null;
+            }
+            long oldest = messages.get(0).getId();
+            if (after != null) {
+                // Messages between the cursor and our oldest entry may exist only in the database
+                if (!complete && after < oldest) {
+                    return null;
+                }
+                int from = firstIndexAbove(after);
+                int available = messages.size() - from;
+                boolean hasMore = available > limit;
+                List<Message> page = copy(messages.subList(from, from + Math.min(available, limit)));
+                return new MessageHistoryService.Page(page, hasMore ? page.get(page.size() - 1).getId() : null, hasMore);
+            }
+
+            int to = before != null ? firstIndexAbove(before - 1) : messages.size();
+            if (to <= limit && !complete) {
+                return null;
+            }
+            boolean hasMore = to > limit;
+            List<Message> page = copy(messages.subList(Math.max(0, to - limit), to));
+            Long nextCursor = hasMore && !page.isEmpty() ? page.get(0).getId() : null;
+            return new MessageHistoryService.Page(page, nextCursor, hasMore);
+        }
+
+        // index of the first message whose id is greater than the given id
+        private int firstIndexAbove(long id) {
+            int lo = 0;
+            int hi = messages.size();
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (messages.get(mid).getId() <= id) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        private static List<Message> copy(Collection<Message> view) {
+            return new ArrayList<>(view);
+        }
+    }
+}
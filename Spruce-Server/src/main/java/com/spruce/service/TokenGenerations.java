@@ -0,0 +1,62 @@
+package com.spruce.service;
+
+import com.spruce.cluster.ClusterRouter;
+import com.spruce.repository.UserRepository;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Current token generation per user. Tokens carry the generation they were issued under and are
+ * rejected once it is lower than the user's current one, which revokes every outstanding token of
+ * that user at once. Generations are read from the users table the first time a user is seen
+ * and kept in memory after that; revocations update this table directly and on other nodes
+ * (topic {@value #TOPIC}, key = userId:generation).
+ */
+@Service
+public class TokenGenerations {
+
+    static final String TOPIC = "token-generations";
+
+    private final UserRepository userRepository;
+    private final ClusterRouter clusterRouter;
+    private final Map<Long, Long> generations = new ConcurrentHashMap<>();
+
+    public TokenGenerations(UserRepository userRepository, ClusterRouter clusterRouter) {
+        this.userRepository = userRepository;
+        this.clusterRouter = clusterRouter;
+        clusterRouter.addInvalidationListener(TOPIC, key -> {
+            int colon = key.indexOf(':');
+            advance(Long.parseLong(key.substring(0, colon)), Long.parseLong(key.substring(colon + 1)));
+        });
+    }
+
+    public boolean isCurrent(long userId, long generation) {
+        Long current = generations.get(userId);
+        if (current == null) {
+            // A deleted user has no row and no valid tokens
+            current = userRepository.findTokenGenerationById(userId).orElse(Long.MAX_VALUE);
+            Long raced = generations.putIfAbsent(userId, current);
+            if (raced != null) {
+                current = raced;
+            }
+        }
+        return generation >= current;
+    }
+
+    /**
+     * Record a newer generation; older values never overwrite newer ones.
+     */
+    public void advance(long userId, long generation) {
+        generations.merge(userId, generation, Math::max);
+    }
+
+    /**
+     * Advance a user's generation on this node and every other node, revoking older tokens everywhere.
+     */
+    public void revoked(long userId, long generation) {
+        advance(userId, generation);
+        clusterRouter.invalidate(TOPIC, userId + ":" + generation);
+    }
+}
@@ -0,0 +1,332 @@
+package com.spruce.service;
+
+import com.spruce.cluster.ClusterRouter;
+import com.spruce.model.UserSearchRow;
+import com.spruce.model.UserSummary;
+import com.spruce.repository.UserRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * In-memory search over usernames and emails, so the search box does not scan the users table
+ * on every keystroke.
+ *
+ * Results come in tiers: exact username, then username prefix (alphabetical, from a sorted map),
+ * then for queries of three or more characters username substring and email substring matches.
+ * Substring tiers use trigram posting lists per field: the query's rarest trigram selects the
+ * candidates, each is checked with a real contains, and matches are taken in registration order,
+ * so a tier stops as soon as the page is full instead of ranking every match.
+ *
+ * The index is loaded from the database in the background once the application is ready and
+ * kept current through {@link #userChanged} on every node (topic {@value #TOPIC}, key = id,
+ * username, email and status separated by NUL); until then {@link #isReady()} is false and callers fall back
+ * to SQL. A changed username or email leaves a tombstone slot; slots are compacted once a
+ * quarter of them are dead.
+ */
+@Service
+public class UserSearchIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserSearchIndex.class);
+
+    public static final int DEFAULT_LIMIT = 20;
+    public static final int MAX_LIMIT = 100;
+
+    static final String TOPIC = "user-search";
+
+    private static final int MIN_COMPACT_TOMBSTONES = 1024;
+
+    private final UserRepository userRepository;
+    private final ClusterRouter clusterRouter;
+    private final TransactionTemplate readOnlyTransaction;
+    private final Timer queryTimer;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // Guarded by lock
+    private final ArrayList<Entry> slots = new ArrayList<>();
+    private final Map<Long, Integer> slotById = new HashMap<>();
+    private final Map<Long, Postings> usernamePostings = new HashMap<>();
+    private final Map<Long, Postings> emailPostings = new HashMap<>();
+    private final TreeMap<String, Integer> byUsername = new TreeMap<>();
+    private int tombstones;
+
+    private volatile boolean ready;
+
+    public UserSearchIndex(UserRepository userRepository, PlatformTransactionManager transactionManager,
+                           ClusterRouter clusterRouter, MeterRegistry meterRegistry) {
+        this.userRepository = userRepository;
+        this.clusterRouter = clusterRouter;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.queryTimer = Timer.builder("spruce.users.search")
+                .description("In-memory user search latency")
+                .publishPercentiles(0.5, 0.99).register(meterRegistry);
+        Gauge.builder("spruce.users.search.entries", this, UserSearchIndex::size).register(meterRegistry);
+        clusterRouter.addInvalidationListener(TOPIC, key -> {
+            String[] fields = key.split("\0", -1);
+            put(new UserSearchRow(Long.parseLong(fields[0]), fields[1],
+                    fields[2].isEmpty() ? null : fields[2], fields[3].isEmpty() ? null : fields[3]));
+        });
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startLoading() {
+        Thread loader = new Thread(this::load, "user-search-index");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public static int clampLimit(Integer limit) {
+        if (limit == null || limit <= 0) {
+            return DEFAULT_LIMIT;
+        }
+        return Math.min(limit, MAX_LIMIT);
+    }
+
+    /**
+     * Add a user or replace what is indexed for them.
+     */
+    public void put(UserSearchRow row) {
+        lock.writeLock().lock();
+        try {
+            upsert(row);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Index a registered or edited user on this node and every other node. The searchable fields
+     * travel in the key, so other nodes need no database read.
+     */
+    public void userChanged(UserSearchRow row) {
+        put(row);
+        clusterRouter.invalidate(TOPIC, String.join("\0", Long.toString(row.id()), row.username(),
+                nullToEmpty(row.email()), nullToEmpty(row.status())));
+    }
+
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+
+    /**
+     * The best matches for a query, best first.
+     */
+    public List<UserSummary> search(String query, int limit) {
+        String needle = query == null ? "" : query.trim().toLowerCase(Locale.ROOT);
+        if (needle.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            // Each tier only runs if the ones before it did not fill the page
+            Map<Long, UserSummary> results = new LinkedHashMap<>();
+            collectPrefixMatches(needle, limit, results);
+            if (needle.length() >= 3) {
+                collectSubstringMatches(usernamePostings, false, needle, limit, results);
+                collectSubstringMatches(emailPostings, true, needle, limit, results);
+            }
+            return new ArrayList<>(results.values());
+        } finally {
+            lock.readLock().unlock();
+            queryTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return slotById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void load() {
+        long start = System.currentTimeMillis();
+        try {
+            readOnlyTransaction.executeWithoutResult(status -> {
+                try (Stream<UserSearchRow> rows = userRepository.streamSearchRows()) {
+                    List<UserSearchRow> chunk = new ArrayList<>(1000);
+                    rows.forEach(row -> {
+                        chunk.add(row);
+                        if (chunk.size() == 1000) {
+                            loadChunk(chunk);
+                            chunk.clear();
+                        }
+                    });
+                    loadChunk(chunk);
+                }
+            });
+            ready = true;
+            logger.info("User search index loaded {} users in {}ms", size(), System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            logger.error("Could not load user search index; searches keep using the database", e);
+        }
+    }
+
+    // Rows written through put() while loading are newer than the snapshot, so they win
+    private void loadChunk(List<UserSearchRow> chunk) {
+        lock.writeLock().lock();
+        try {
+            for (UserSearchRow row : chunk) {
+                if (!slotById.containsKey(row.id())) {
+                    upsert(row);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void upsert(UserSearchRow row) {
+        if (row.id() == null || row.username() == null) {
+            return;
+        }
+        Entry entry = new Entry(row.id(), row.username(), row.status(),
+                row.username().toLowerCase(Locale.ROOT),
+                row.email() != null ? row.email().toLowerCase(Locale.ROOT) : "");
+        Integer existing = slotById.get(row.id());
+        if (existing != null) {
+            Entry old = slots.get(existing);
+            if (old.usernameLower.equals(entry.usernameLower) && old.emailLower.equals(entry.emailLower)) {
+                // Only the status changed; the slot keeps its postings
+                slots.set(existing, entry);
+                return;
+            }
+            slots.set(existing, null);
+            byUsername.remove(old.usernameKey());
+            tombstones++;
+        }
+        index(entry);
+        if (tombstones >= MIN_COMPACT_TOMBSTONES && tombstones * 4 > slots.size()) {
+            compact();
+        }
+    }
+
+    private void index(Entry entry) {
+        int slot = slots.size();
+        slots.add(entry);
+        slotById.put(entry.id, slot);
+        byUsername.put(entry.usernameKey(), slot);
+        addTrigrams(usernamePostings, entry.usernameLower, slot);
+        addTrigrams(emailPostings, entry.emailLower, slot);
+    }
+
+    private static void addTrigrams(Map<Long, Postings> postings, String text, int slot) {
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            postings.computeIfAbsent(trigram(text, i), k -> new Postings()).add(slot);
+        }
+    }
+
+    private void compact() {
+        List<Entry> live = new ArrayList<>(slotById.size());
+        for (Entry entry : slots) {
+            if (entry != null) {
+                live.add(entry);
+            }
+        }
+        slots.clear();
+        slotById.clear();
+        usernamePostings.clear();
+        emailPostings.clear();
+        byUsername.clear();
+        tombstones = 0;
+        for (Entry entry : live) {
+            index(entry);
+        }
+        logger.debug("Compacted user search index to {} entries", live.size());
+    }
+
+    // Keys are username + '\0' + id, so an exact match sorts before any longer username
+    private void collectPrefixMatches(String needle, int limit, Map<Long, UserSummary> results) {
+        NavigableMap<String, Integer> range = byUsername.subMap(needle, true, needle + Character.MAX_VALUE, false);
+        for (Integer slot : range.values()) {
+            if (results.size() >= limit) {
+                return;
+            }
+            Entry entry = slots.get(slot);
+            results.putIfAbsent(entry.id, entry.summary());
+        }
+    }
+
+    private void collectSubstringMatches(Map<Long, Postings> postings, boolean email, String needle, int limit,
+                                         Map<Long, UserSummary> results) {
+        Postings rarest = null;
+        for (int i = 0; i + 3 <= needle.length(); i++) {
+            Postings candidates = postings.get(trigram(needle, i));
+            if (candidates == null) {
+                return;
+            }
+            if (rarest == null || candidates.size < rarest.size) {
+                rarest = candidates;
+            }
+        }
+        for (int i = 0; i < rarest.size && results.size() < limit; i++) {
+            Entry entry = slots.get(rarest.slots[i]);
+            if (entry != null && (email ? entry.emailLower : entry.usernameLower).contains(needle)) {
+                results.putIfAbsent(entry.id, entry.summary());
+            }
+        }
+    }
+
+    private static long trigram(String text, int i) {
+        return ((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2);
+    }
+
+    private record Entry(long id, String username, String status, String usernameLower, String emailLower) {
+
+        String usernameKey() {
+            return usernameLower + '\0' + id;
+        }
+
+        UserSummary summary() {
+            return new UserSummary(id, username, status);
+        }
+    }
+
+    /**
+     * Ascending slots whose field contains one trigram. A slot is appended once even if the
+     * trigram occurs several times in the field, since slots are always indexed in increasing order.
+     */
+    private static final class Postings {
+        int[] slots = new int[4];
+        int size;
+
+        void add(int slot) {
+            if (size > 0 && slots[size - 1] == slot) {
+                return;
+            }
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            slots[size++] = slot;
+        }
+    }
+}
@@ -1,27 +1,59 @@
 package com.spruce.service;
 
 import com.spruce.model.User;
+import com.spruce.model.UserProfile;
+import com.spruce.model.UserPublicKeys;
+import com.spruce.model.UserSearchRow;
+import com.spruce.model.UserSummary;
+import com.spruce.repository.UserProfileRepository;
+import com.spruce.repository.UserPublicKeysRepository;
 import com.spruce.repository.UserRepository;
-import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @Service
 public class UserService {
     
     private final UserRepository userRepository;
-    private final PasswordEncoder passwordEncoder;
-
-    public UserService(UserRepository userRepository, PasswordEncoder passwordEncoder) {
+    private final UserProfileRepository userProfileRepository;
+    private final UserPublicKeysRepository userPublicKeysRepository;
+    private final TokenGenerations tokenGenerations;
+    private final UserSearchIndex userSearchIndex;
+
+    public UserService(UserRepository userRepository, UserProfileRepository userProfileRepository,
+                       UserPublicKeysRepository userPublicKeysRepository, TokenGenerations tokenGenerations,
+                       UserSearchIndex userSearchIndex) {
         this.userRepository = userRepository;
-        this.passwordEncoder = passwordEncoder;
+        this.userProfileRepository = userProfileRepository;
+        this.userPublicKeysRepository = userPublicKeysRepository;
+        this.tokenGenerations = tokenGenerations;
+        this.userSearchIndex = userSearchIndex;
     }
 
-    public User register(User user) {
-        user.setPassword(passwordEncoder.encode(user.getPassword()));
-        return userRepository.save(user);
+    /**
+     * Save a new user whose password has already been hashed, together with their public keys.
+     */
+    @Transactional
+    public User register(User user, UserPublicKeys keys) {
+        User saved = userRepository.save(user);
+        keys.setUserId(saved.getId());
+        userPublicKeysRepository.save(keys);
+        // Only searchable once the row is visible to everyone else
+        UserSearchRow row = toSearchRow(saved);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                userSearchIndex.userChanged(row);
+            }
+        });
+        return saved;
     }
 
     public Optional<User> findByEmail(String email) {
@@ -45,15 +77,66 @@ public class UserService {
     }
 
     public User updateUser(User user) {
-        return userRepository.save(user);
+        User saved = userRepository.save(user);
+        userSearchIndex.userChanged(toSearchRow(saved));
+        return saved;
+    }
+
+    @Transactional
+    public void updatePasswordHash(Long userId, String passwordHash) {
+        userRepository.updatePassword(userId, passwordHash);
+    }
+
+    /**
+     * Avatar and bio of a user; an empty profile if none was ever saved.
+     */
+    public UserProfile findProfile(Long userId) {
+        return userProfileRepository.findById(userId).orElseGet(() -> new UserProfile(userId, null, null));
+    }
+
+    public UserProfile updateProfile(UserProfile profile) {
+        return userProfileRepository.save(profile);
+    }
+
+    /**
+     * Replace the keys present in the map (others are kept) and bump the key version. The row is
+     * locked from the read to the commit, so concurrent updates each get their own version.
+     */
+    @Transactional
+    public UserPublicKeys publishKeys(Long userId, Map<String, String> keys) {
+        UserPublicKeys current = userPublicKeysRepository.findByIdForUpdate(userId)
+                .orElseGet(() -> new UserPublicKeys(userId, null, null, null, 0));
+        if (keys.containsKey("perm_pub_x25519")) current.setPermPubX25519(keys.get("perm_pub_x25519"));
+        if (keys.containsKey("kyber_pub")) current.setKyberPub(keys.get("kyber_pub"));
+        if (keys.containsKey("dilithium_pub")) current.setDilithiumPub(keys.get("dilithium_pub"));
+        current.setVersion(current.getVersion() + 1);
+        return userPublicKeysRepository.save(current);
+    }
+
+    /**
+     * Increment the user's token generation in the database and return the updated user.
+     */
+    @Transactional
+    public User advanceTokenGeneration(Long userId) {
+        userRepository.incrementTokenGeneration(userId);
+        User user = userRepository.findById(userId).orElseThrow();
+        tokenGenerations.advance(userId, user.getTokenGeneration());
+        return user;
+    }
+
+    /**
+     * Best matches for a search-box query, at most limit of them. Served from the in-memory index
+     * once it has loaded, from SQL before that.
+     */
+    public List<UserSummary> searchUsers(String query, int limit) {
+        if (userSearchIndex.isReady()) {
+            return userSearchIndex.search(query, limit);
+        }
+        return userRepository.searchSummaries(query, PageRequest.of(0, limit));
     }
 
-    public List<User> searchUsers(String query) {
-        String lowerQuery = query.toLowerCase();
-        return userRepository.findAll().stream()
-                .filter(u -> (u.getUsername() != null && u.getUsername().toLowerCase().contains(lowerQuery)) ||
-                           (u.getEmail() != null && u.getEmail().toLowerCase().contains(lowerQuery)))
-                .toList();
+    private static UserSearchRow toSearchRow(User user) {
+        return new UserSearchRow(user.getId(), user.getUsername(), user.getEmail(), user.getStatus());
     }
 }
 
@@ -0,0 +1,225 @@
+package com.spruce.websocket;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Binary framing for message and group_message frames, negotiated with the
+ * {@value #SUBPROTOCOL} WebSocket subprotocol. Ciphertext and IV travel as raw bytes, so a
+ * binary-to-binary relay never touches base64. All integers are big-endian:
+ *
+ * <pre>
+ * offset size
+ *  0     1   kind (1 = message, 2 = group_message)
+ *  1     1   version (1)
+ *  2     2   IV length
+ *  4     2   clientId length (UTF-8)
+ *  6     8   senderId (set by the server)
+ * 14     8   receiverId or groupId
+ * 22     8   message id (set by the server)
+ * 30     8   ts, epoch millis (set by the server)
+ * 38         clientId, IV, then ciphertext up to the end of the frame
+ * </pre>
+ *
+ * Control frames (handshake, acks, inbox, errors) stay JSON text on every session.
+ */
+public final class BinaryFrameCodec {
+
+    public static final String SUBPROTOCOL = "spruce.binary.v1";
+
+    public static final byte KIND_MESSAGE = 1;
+    public static final byte KIND_GROUP_MESSAGE = 2;
+
+    static final byte VERSION = 1;
+    static final int HEADER_LENGTH = 38;
+
+    private static final int IV_LENGTH_OFFSET = 2;
+    private static final int CLIENT_ID_LENGTH_OFFSET = 4;
+    private static final int SENDER_OFFSET = 6;
+    private static final int TARGET_OFFSET = 14;
+    private static final int MESSAGE_ID_OFFSET = 22;
+    private static final int TS_OFFSET = 30;
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private BinaryFrameCodec() {
+    }
+
+    /**
+     * Read view over a received frame. Offsets index into the backing array; nothing is copied.
+     */
+    public record Frame(byte[] bytes, byte kind, long senderId, long targetId, long messageId, long ts,
+                        String clientId, int ivOffset, int ivLength, int ciphertextOffset) {
+
+        public boolean isGroup() {
+            return kind == KIND_GROUP_MESSAGE;
+        }
+
+        public int ciphertextLength() {
+            return bytes.length - ciphertextOffset;
+        }
+
+        public String ivBase64() {
+            return ivLength == 0 ? null
+                    : Base64.getEncoder().encodeToString(Arrays.copyOfRange(bytes, ivOffset, ivOffset + ivLength));
+        }
+
+        public String ciphertextBase64() {
+            return Base64.getEncoder().encodeToString(
+                    Arrays.copyOfRange(bytes, ciphertextOffset, bytes.length));
+        }
+    }
+
+    /**
+     * Parse and validate a frame. Throws IllegalArgumentException if it is malformed.
+     */
+    public static Frame decode(byte[] bytes) {
+        if (bytes.length < HEADER_LENGTH) {
+            throw new IllegalArgumentException("Binary frame shorter than header");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        byte kind = buffer.get(0);
+        if (kind != KIND_MESSAGE && kind != KIND_GROUP_MESSAGE) {
+            throw new IllegalArgumentException("Unknown binary frame kind " + kind);
+        }
+        if (buffer.get(1) != VERSION) {
+            throw new IllegalArgumentException("Unsupported binary frame version " + buffer.get(1));
+        }
+        int ivLength = Short.toUnsignedInt(buffer.getShort(IV_LENGTH_OFFSET));
+        int clientIdLength = Short.toUnsignedInt(buffer.getShort(CLIENT_ID_LENGTH_OFFSET));
+        int ivOffset = HEADER_LENGTH + clientIdLength;
+        int ciphertextOffset = ivOffset + ivLength;
+        if (ciphertextOffset > bytes.length) {
+            throw new IllegalArgumentException("Binary frame lengths exceed frame size");
+        }
+        String clientId = clientIdLength == 0 ? null
+                : new String(bytes, HEADER_LENGTH, clientIdLength, StandardCharsets.UTF_8);
+        return new Frame(bytes, kind, buffer.getLong(SENDER_OFFSET), buffer.getLong(TARGET_OFFSET),
+                buffer.getLong(MESSAGE_ID_OFFSET), buffer.getLong(TS_OFFSET),
+                clientId, ivOffset, ivLength, ciphertextOffset);
+    }
+
+    /**
+     * Overwrite the server-owned header fields in place.
+     */
+    public static void stamp(byte[] bytes, long senderId, long messageId, long ts) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.putLong(SENDER_OFFSET, senderId);
+        buffer.putLong(MESSAGE_ID_OFFSET, messageId);
+        buffer.putLong(TS_OFFSET, ts);
+    }
+
+    /**
+     * Render a binary frame as the equivalent JSON relay frame for text sessions.
+     */
+    public static String toJson(Frame frame) {
+        StringWriter out = new StringWriter(frame.ciphertextLength() * 4 / 3 + 160);
+        try (JsonGenerator json = JSON.createGenerator(out)) {
+            json.writeStartObject();
+            json.writeStringField("type", frame.isGroup() ? "group_message" : "message");
+            json.writeNumberField("senderId", frame.senderId());
+            json.writeNumberField(frame.isGroup() ? "groupId" : "receiverId", frame.targetId());
+            if (frame.messageId() != 0) {
+                json.writeNumberField("id", frame.messageId());
+            }
+            json.writeNumberField("ts", frame.ts());
+            if (frame.clientId() != null) {
+                json.writeStringField("clientId", frame.clientId());
+            }
+            if (frame.ivLength() > 0) {
+                json.writeFieldName("iv");
+                json.writeBinary(frame.bytes(), frame.ivOffset(), frame.ivLength());
+            }
+            json.writeFieldName("ciphertext");
+            json.writeBinary(frame.bytes(), frame.ciphertextOffset(), frame.ciphertextLength());
+            json.writeEndObject();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not render binary frame as JSON", e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Encode a JSON relay frame for binary sessions, or return null if it is not a
+     * message/group_message frame (those are sent as text).
+     */
+    public static byte[] fromJson(String text) {
+        String type = null;
+        long senderId = 0;
+        long targetId = 0;
+        long messageId = 0;
+        long ts = 0;
+        String clientId = null;
+        String iv = null;
+        String ciphertext = null;
+        try (JsonParser parser = JSON.createParser(text)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "type" -> type = parser.getValueAsString();
+                    case "senderId" -> senderId = parser.getValueAsLong();
+                    case "receiverId", "groupId" -> targetId = parser.getValueAsLong();
+                    case "id" -> messageId = parser.getValueAsLong();
+                    case "ts" -> ts = parser.getValueAsLong();
+                    case "clientId" -> clientId = value == JsonToken.VALUE_NULL ? null : parser.getValueAsString();
+                    case "iv" -> iv = parser.getValueAsString();
+                    case "ciphertext" -> ciphertext = parser.getValueAsString();
+                    default -> parser.skipChildren();
+                }
+            }
+        } catch (IOException e) {
+            return null;
+        }
+
+        byte kind;
+        if ("message".equals(type)) {
+            kind = KIND_MESSAGE;
+        } else if ("group_message".equals(type)) {
+            kind = KIND_GROUP_MESSAGE;
+        } else {
+            return null;
+        }
+        if (ciphertext == null) {
+            return null;
+        }
+        byte[] ivBytes;
+        byte[] ciphertextBytes;
+        try {
+            ivBytes = iv != null ? Base64.getDecoder().decode(iv) : new byte[0];
+            ciphertextBytes = Base64.getDecoder().decode(ciphertext);
+        } catch (IllegalArgumentException e) {
+            // Not base64; only representable as text
+            return null;
+        }
+        byte[] clientIdBytes = clientId != null ? clientId.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        if (ivBytes.length > 0xFFFF || clientIdBytes.length > 0xFFFF) {
+            return null;
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(HEADER_LENGTH + clientIdBytes.length + ivBytes.length + ciphertextBytes.length);
+        out.put(kind).put(VERSION)
+                .putShort((short) ivBytes.length)
+                .putShort((short) clientIdBytes.length)
+                .putLong(senderId)
+                .putLong(targetId)
+                .putLong(messageId)
+                .putLong(ts)
+                .put(clientIdBytes)
+                .put(ivBytes)
+                .put(ciphertextBytes);
+        return out.array();
+    }
+}
@@ -0,0 +1,190 @@
+package com.spruce.websocket;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A client's JSON frame, scanned once with the streaming parser for just the fields the server
+ * acts on. No tree is built and fields the server does not read are skipped without being
+ * decoded. The relay copy is produced by splicing server fields in front of the closing brace of
+ * the original text, so the ciphertext is never re-serialized. Spliced fields come last, and JSON
+ * readers keep the last value of a repeated key, so a client cannot override them.
+ */
+final class InboundFrame {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final String raw;
+    private int closingBrace;
+    private boolean hasFields;
+
+    private String type;
+    private Long receiverId;
+    private Long groupId;
+    private String ciphertext;
+    private String iv;
+    private Object clientId;
+    private List<Long> ids;
+
+    private InboundFrame(String raw) {
+        this.raw = raw;
+    }
+
+    /**
+     * Scan a frame. Throws if it is not a single JSON object, an id field is not a number, or a
+     * field the server reads holds an object or array.
+     */
+    static InboundFrame scan(String raw) throws IOException {
+        InboundFrame frame = new InboundFrame(raw);
+        try (JsonParser parser = JSON.createParser(raw)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Frame is not a JSON object");
+            }
+            JsonToken token;
+            while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                frame.hasFields = true;
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "type" -> frame.type = readScalar(parser, value);
+                    case "receiverId" -> frame.receiverId = readId(parser, value);
+                    case "groupId" -> frame.groupId = readId(parser, value);
+                    case "ciphertext" -> frame.ciphertext = readScalar(parser, value);
+                    case "iv" -> frame.iv = readScalar(parser, value);
+                    case "clientId" -> frame.clientId = value == JsonToken.VALUE_NUMBER_INT
+                            ? (Object) parser.getLongValue() : readScalar(parser, value);
+                    case "ids" -> frame.ids = readIds(parser, value);
+                    default -> parser.skipChildren();
+                }
+            }
+            if (token != JsonToken.END_OBJECT) {
+                throw new IOException("Unterminated JSON object");
+            }
+            frame.closingBrace = (int) parser.getTokenLocation().getCharOffset();
+        }
+        return frame;
+    }
+
+    String getType() {
+        return type;
+    }
+
+    Long getReceiverId() {
+        return receiverId;
+    }
+
+    Long getGroupId() {
+        return groupId;
+    }
+
+    String getCiphertext() {
+        return ciphertext;
+    }
+
+    String getIv() {
+        return iv;
+    }
+
+    Object getClientId() {
+        return clientId;
+    }
+
+    List<Long> getIds() {
+        return ids;
+    }
+
+    /**
+     * Start the relay copy: the original frame up to its closing brace, ready for server fields.
+     */
+    Splice splice() {
+        return new Splice(raw, closingBrace, hasFields);
+    }
+
+    // An object or array here would leave the parser inside it, reading its keys as top-level fields
+    private static String readScalar(JsonParser parser, JsonToken value) throws IOException {
+        if (value.isStructStart()) {
+            throw new IOException("Field " + parser.currentName() + " must be a string or number");
+        }
+        return parser.getValueAsString();
+    }
+
+    private static Long readId(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (value == JsonToken.VALUE_NUMBER_INT) {
+            return parser.getLongValue();
+        }
+        String text = readScalar(parser, value);
+        try {
+            return Long.valueOf(text);
+        } catch (NumberFormatException e) {
+            throw new IOException("Id is not a number: " + text);
+        }
+    }
+
+    private static List<Long> readIds(JsonParser parser, JsonToken value) throws IOException {
+        if (value != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return null;
+        }
+        List<Long> result = new ArrayList<>();
+        JsonToken element;
+        while ((element = parser.nextToken()) != JsonToken.END_ARRAY) {
+            Long id = readId(parser, element);
+            if (id != null) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Appends server fields to a copy of the original frame.
+     */
+    static final class Splice {
+        private final StringBuilder out;
+        private boolean needsComma;
+
+        private Splice(String raw, int closingBrace, boolean hasFields) {
+            this.out = new StringBuilder(closingBrace + 160);
+            this.out.append(raw, 0, closingBrace);
+            this.needsComma = hasFields;
+        }
+
+        Splice field(String name, long value) {
+            name(name).append(value);
+            return this;
+        }
+
+        Splice field(String name, String value) {
+            StringBuilder target = name(name);
+            if (value == null) {
+                target.append("null");
+            } else {
+                target.append('"');
+                JsonStringEncoder.getInstance().quoteAsString(value, target);
+                target.append('"');
+            }
+            return this;
+        }
+
+        String build() {
+            return out.append('}').toString();
+        }
+
+        private StringBuilder name(String name) {
+            if (needsComma) {
+                out.append(',');
+            }
+            needsComma = true;
+            return out.append('"').append(name).append("\":");
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.spruce.websocket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, non-blocking outbound buffer in front of one WebSocketSession.
+ * Callers only enqueue; frames are written by a flusher thread, one flush per session at a time,
+ * so a slow receiver never blocks the thread that relayed to it and the underlying session is
+ * never written concurrently. When the buffer exceeds its frame/byte limits the configured
+ * overflow policy applies; a session whose flush has been stuck longer than the send time
+ * limit is treated as a slow consumer and disconnected, on its next send or by the factory's
+ * watchdog, whichever comes first.
+ */
+public class OutboundSession {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboundSession.class);
+
+    /**
+     * DROP_OLDEST discards the oldest buffered frames, DISCONNECT closes the session,
+     * SPILL moves the oldest direct messages to the offline inbox and drops any other frame.
+     */
+    public enum OverflowPolicy { DROP_OLDEST, DISCONNECT, SPILL }
+
+    /**
+     * Receives direct messages pushed out of a full buffer under the SPILL policy.
+     */
+    public interface SpillHandler {
+        void spill(long userId, long messageId);
+    }
+
+    // The relay a frame was encoded from, if any, so SPILL can recover its message id
+    private record Queued(WebSocketMessage<?> frame, RelayFrame relay) {
+    }
+
+    private final WebSocketSession delegate;
+    private final long userId;
+    private final boolean binary;
+    private final OutboundSessionFactory settings;
+    private final Executor flusher;
+
+    private final ConcurrentLinkedDeque<Queued> buffer = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private volatile long flushStartedAt;
+    private volatile boolean closed;
+
+    OutboundSession(WebSocketSession delegate, long userId, boolean binary, OutboundSessionFactory settings, Executor flusher) {
+        this.delegate = delegate;
+        this.userId = userId;
+        this.binary = binary;
+        this.settings = settings;
+        this.flusher = flusher;
+    }
+
+    public WebSocketSession getDelegate() {
+        return delegate;
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    /**
+     * Whether the client negotiated the binary subprotocol for message frames.
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    public boolean isOpen() {
+        return !closed && delegate.isOpen();
+    }
+
+    public int getQueueDepth() {
+        return depth.get();
+    }
+
+    public long getBufferedBytes() {
+        return bufferedBytes.get();
+    }
+
+    /**
+     * Queue a relay frame in the encoding this session negotiated.
+     */
+    public void send(RelayFrame frame) {
+        enqueue(frame.encodedFor(binary), frame);
+    }
+
+    /**
+     * Queue a frame for delivery. Never blocks on the network.
+     */
+    public void send(WebSocketMessage<?> frame) {
+        enqueue(frame, null);
+    }
+
+    private void enqueue(WebSocketMessage<?> frame, RelayFrame relay) {
+        if (!isOpen()) {
+            return;
+        }
+        if (disconnectIfStalled()) {
+            return;
+        }
+
+        buffer.addLast(new Queued(frame, relay));
+        settings.recordDepth(depth.incrementAndGet());
+        bufferedBytes.addAndGet(frame.getPayloadLength());
+        if (depth.get() > settings.getBufferFrameLimit() || bufferedBytes.get() > settings.getBufferByteLimit()) {
+            handleOverflow();
+        }
+        scheduleFlush();
+    }
+
+    void close(CloseStatus status) {
+        closed = true;
+        buffer.clear();
+        depth.set(0);
+        bufferedBytes.set(0);
+        try {
+            delegate.close(status);
+        } catch (IOException e) {
+            logger.debug("Error closing session {}", delegate.getId(), e);
+        }
+    }
+
+    /**
+     * Close the session if its current flush has been stuck longer than the send time limit.
+     */
+    boolean disconnectIfStalled() {
+        long started = flushStartedAt;
+        if (closed || started == 0 || System.currentTimeMillis() - started <= settings.getSendTimeLimitMs()) {
+            return false;
+        }
+        logger.warn("Outbound flush for session {} (user {}) stuck for over {}ms, disconnecting",
+                    delegate.getId(), userId, settings.getSendTimeLimitMs());
+        settings.recordSlowConsumer();
+        close(CloseStatus.SESSION_NOT_RELIABLE);
+        return true;
+    }
+
+    private void handleOverflow() {
+        OverflowPolicy policy = settings.getOverflowPolicy();
+        if (policy == OverflowPolicy.DISCONNECT) {
+            logger.warn("Outbound buffer overflow for session {} (user {}), disconnecting", delegate.getId(), userId);
+            settings.recordSlowConsumer();
+            close(CloseStatus.SESSION_NOT_RELIABLE);
+            return;
+        }
+        while (depth.get() > settings.getBufferFrameLimit() || bufferedBytes.get() > settings.getBufferByteLimit()) {
+            Queued oldest = buffer.pollFirst();
+            if (oldest == null) {
+                break;
+            }
+            depth.decrementAndGet();
+            bufferedBytes.addAndGet(-oldest.frame().getPayloadLength());
+            long messageId = policy == OverflowPolicy.SPILL && oldest.relay() != null ? oldest.relay().directMessageId() : 0;
+            if (messageId != 0) {
+                settings.spill(userId, messageId);
+            } else {
+                settings.recordDropped();
+            }
+        }
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            flusher.execute(this::flush);
+        }
+    }
+
+    private void flush() {
+        try {
+            Queued queued;
+            while (!closed && (queued = buffer.pollFirst()) != null) {
+                depth.decrementAndGet();
+                bufferedBytes.addAndGet(-queued.frame().getPayloadLength());
+                flushStartedAt = System.currentTimeMillis();
+                try {
+                    delegate.sendMessage(queued.frame());
+                } finally {
+                    flushStartedAt = 0;
+                }
+            }
+        } catch (IOException | IllegalStateException e) {
+            logger.warn("Failed to flush outbound frames to session {} (user {})", delegate.getId(), userId, e);
+            close(CloseStatus.SESSION_NOT_RELIABLE);
+        } finally {
+            flushScheduled.set(false);
+        }
+        // A frame enqueued after the loop ended but before the flag was cleared would otherwise wait
+        if (!closed && !buffer.isEmpty()) {
+            scheduleFlush();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.spruce.websocket;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates {@link OutboundSession} wrappers and owns what they share: buffer limits,
+ * overflow policy, the flusher pool and the outbound queue metrics. A watchdog disconnects
+ * sessions whose flush is stuck even when nothing more is sent to them, so a few dead
+ * receivers cannot hold the flusher threads until their next message.
+ */
+@Component
+public class OutboundSessionFactory {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboundSessionFactory.class);
+
+    private final int bufferFrameLimit;
+    private final long bufferByteLimit;
+    private final long sendTimeLimitMs;
+    private final OutboundSession.OverflowPolicy overflowPolicy;
+    private final ObjectProvider<OutboundSession.SpillHandler> spillHandler;
+    private final ExecutorService flusher;
+    private final ScheduledExecutorService watchdog;
+    private final Set<OutboundSession> sessions = ConcurrentHashMap.newKeySet();
+
+    private final Counter droppedFrames;
+    private final Counter spilledFrames;
+    private final Counter slowConsumers;
+    private final DistributionSummary depthOnEnqueue;
+
+    public OutboundSessionFactory(
+            @Value("${app.websocket.outbound.buffer-frames:1000}") int bufferFrameLimit,
+            @Value("${app.websocket.outbound.buffer-bytes:4194304}") long bufferByteLimit,
+            @Value("${app.websocket.outbound.send-time-limit-ms:10000}") long sendTimeLimitMs,
+            @Value("${app.websocket.outbound.overflow-policy:DROP_OLDEST}") OutboundSession.OverflowPolicy overflowPolicy,
+            @Value("${app.websocket.outbound.flusher-threads:8}") int flusherThreads,
+            ObjectProvider<OutboundSession.SpillHandler> spillHandler,
+            MeterRegistry meterRegistry) {
+        this.bufferFrameLimit = bufferFrameLimit;
+        this.bufferByteLimit = bufferByteLimit;
+        this.sendTimeLimitMs = sendTimeLimitMs;
+        this.overflowPolicy = overflowPolicy;
+        this.spillHandler = spillHandler;
+        this.flusher = Executors.newFixedThreadPool(flusherThreads, runnable -> {
+            Thread thread = new Thread(runnable, "ws-outbound-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ws-outbound-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long checkIntervalMs = Math.max(sendTimeLimitMs / 4, 100);
+        this.watchdog.scheduleWithFixedDelay(this::disconnectStalled, checkIntervalMs, checkIntervalMs, TimeUnit.MILLISECONDS);
+
+        this.droppedFrames = Counter.builder("spruce.websocket.outbound.frames")
+                .tag("result", "dropped").register(meterRegistry);
+        this.spilledFrames = Counter.builder("spruce.websocket.outbound.frames")
+                .tag("result", "spilled").register(meterRegistry);
+        this.slowConsumers = Counter.builder("spruce.websocket.outbound.slow_consumers").register(meterRegistry);
+        this.depthOnEnqueue = DistributionSummary.builder("spruce.websocket.outbound.queue_depth")
+                .description("Per-session outbound queue depth sampled on every enqueue")
+                .publishPercentiles(0.5, 0.99).register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        watchdog.shutdown();
+        flusher.shutdown();
+    }
+
+    public OutboundSession wrap(WebSocketSession session, long userId) {
+        boolean binary = BinaryFrameCodec.SUBPROTOCOL.equals(session.getAcceptedProtocol());
+        OutboundSession outbound = new OutboundSession(session, userId, binary, this, flusher);
+        sessions.add(outbound);
+        return outbound;
+    }
+
+    private void disconnectStalled() {
+        try {
+            for (OutboundSession session : sessions) {
+                if (!session.isOpen() || session.disconnectIfStalled()) {
+                    sessions.remove(session);
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Outbound watchdog sweep failed", e);
+        }
+    }
+
+    int getBufferFrameLimit() {
+        return bufferFrameLimit;
+    }
+
+    long getBufferByteLimit() {
+        return bufferByteLimit;
+    }
+
+    long getSendTimeLimitMs() {
+        return sendTimeLimitMs;
+    }
+
+    OutboundSession.OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    void spill(long userId, long messageId) {
+        OutboundSession.SpillHandler handler = spillHandler.getIfAvailable();
+        if (handler == null) {
+            logger.warn("SPILL overflow policy configured without a spill handler, dropping message {} for user {}",
+                        messageId, userId);
+            droppedFrames.increment();
+            return;
+        }
+        handler.spill(userId, messageId);
+        spilledFrames.increment();
+    }
+
+    void recordDepth(int depth) {
+        depthOnEnqueue.record(depth);
+    }
+
+    void recordDropped() {
+        droppedFrames.increment();
+    }
+
+    void recordSlowConsumer() {
+        slowConsumers.increment();
+    }
+}
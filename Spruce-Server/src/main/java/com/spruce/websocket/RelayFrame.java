@@ -0,0 +1,91 @@
+package com.spruce.websocket;
+
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+/**
+ * A frame relayed to possibly many sessions that may have negotiated different protocols.
+ * It is created in the sender's encoding and converted to the other encoding at most once,
+ * the first time a session of the other kind needs it.
+ */
+public final class RelayFrame {
+
+    private final boolean binaryOrigin;
+    private volatile String text;
+    private volatile byte[] binary;
+    private volatile boolean binaryResolved;
+
+    private RelayFrame(String text, byte[] binary) {
+        this.binaryOrigin = binary != null;
+        this.text = text;
+        this.binary = binary;
+        this.binaryResolved = binaryOrigin;
+    }
+
+    public static RelayFrame text(String json) {
+        return new RelayFrame(json, null);
+    }
+
+    /**
+     * Wrap an encoded binary frame. The array is shared by every recipient and must not be modified afterwards.
+     */
+    public static RelayFrame binary(byte[] frame) {
+        return new RelayFrame(null, frame);
+    }
+
+    /**
+     * Whether this frame was created from a binary frame, i.e. its binary form needs no conversion.
+     */
+    public boolean isBinaryOrigin() {
+        return binaryOrigin;
+    }
+
+    // Conversions may race and run twice; both produce the same result
+    public String getText() {
+        String current = text;
+        if (current == null) {
+            current = BinaryFrameCodec.toJson(BinaryFrameCodec.decode(binary));
+            text = current;
+        }
+        return current;
+    }
+
+    /**
+     * Binary form, or null if this frame has none (e.g. a handshake) and must be sent as text.
+     */
+    public byte[] getBinary() {
+        if (!binaryResolved) {
+            binary = BinaryFrameCodec.fromJson(text);
+            binaryResolved = true;
+        }
+        return binary;
+    }
+
+    /**
+     * Id of the direct message this frame relays, or 0 if it is not a direct message with an
+     * assigned id (a group message, handshake or other control frame).
+     */
+    public long directMessageId() {
+        byte[] bytes = getBinary();
+        if (bytes == null) {
+            return 0;
+        }
+        BinaryFrameCodec.Frame frame = BinaryFrameCodec.decode(bytes);
+        return frame.isGroup() ? 0 : frame.messageId();
+    }
+
+    /**
+     * The message to write to one session. Binary messages get their own ByteBuffer view,
+     * since writing a buffer consumes its position.
+     */
+    public WebSocketMessage<?> encodedFor(boolean binarySession) {
+        if (binarySession) {
+            byte[] bytes = getBinary();
+            if (bytes != null) {
+                return new BinaryMessage(bytes);
+            }
+        }
+        return new TextMessage(getText());
+    }
+}
@@ -0,0 +1,217 @@
+package com.spruce.websocket;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * All live WebSocket sessions, by user. A user may have several sessions at once (phone + desktop).
+ *
+ * Storage is an open-addressing table keyed by primitive user id whose values are copy-on-write
+ * arrays of that user's sessions. Lookups in the relay path take no lock and allocate nothing:
+ * they probe the current table and return the published array as-is. Register/unregister are
+ * rare by comparison and serialize on the registry monitor.
+ */
+@Component
+public class SessionRegistry {
+
+    private static final OutboundSession[] NONE = new OutboundSession[0];
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private volatile Table table = new Table(INITIAL_CAPACITY);
+    private int userCount;
+    private int sessionCount;
+
+    public SessionRegistry(MeterRegistry meterRegistry) {
+        Gauge.builder("spruce.websocket.users", this, SessionRegistry::getUserCount).register(meterRegistry);
+        Gauge.builder("spruce.websocket.sessions", this, SessionRegistry::getSessionCount).register(meterRegistry);
+        Gauge.builder("spruce.websocket.outbound.queued_frames", this, SessionRegistry::totalQueuedFrames)
+                .register(meterRegistry);
+        Gauge.builder("spruce.websocket.outbound.max_queue_depth", this, SessionRegistry::maxQueueDepth)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Sessions of a user, or an empty array. The returned array is shared and must not be modified.
+     */
+    public OutboundSession[] get(long userId) {
+        Table current = table;
+        int slot = current.find(userId);
+        if (slot < 0) {
+            return NONE;
+        }
+        OutboundSession[] found = current.values.get(slot);
+        return found != null ? found : NONE;
+    }
+
+    public boolean isOnline(long userId) {
+        return get(userId).length > 0;
+    }
+
+    public synchronized void register(OutboundSession session) {
+        long userId = session.getUserId();
+        Table current = table;
+        int slot = current.find(userId);
+        if (slot < 0) {
+            if (current.used + 1 > current.capacity() / 2) {
+                current = resize(current);
+            }
+            slot = current.claim(userId);
+        }
+        OutboundSession[] existing = current.values.get(slot);
+        if (existing == null || existing.length == 0) {
+            userCount++;
+            current.values.set(slot, new OutboundSession[] { session });
+        } else {
+            OutboundSession[] grown = Arrays.copyOf(existing, existing.length + 1);
+            grown[existing.length] = session;
+            current.values.set(slot, grown);
+        }
+        sessionCount++;
+    }
+
+    public synchronized void unregister(OutboundSession session) {
+        Table current = table;
+        int slot = current.find(session.getUserId());
+        if (slot < 0) {
+            return;
+        }
+        OutboundSession[] existing = current.values.get(slot);
+        if (existing == null) {
+            return;
+        }
+        int index = -1;
+        for (int i = 0; i < existing.length; i++) {
+            if (existing[i] == session) {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0) {
+            return;
+        }
+        sessionCount--;
+        if (existing.length == 1) {
+            // The key stays as a tombstone until the next resize; the user usually reconnects
+            userCount--;
+            current.values.set(slot, null);
+            return;
+        }
+        OutboundSession[] shrunk = new OutboundSession[existing.length - 1];
+        System.arraycopy(existing, 0, shrunk, 0, index);
+        System.arraycopy(existing, index + 1, shrunk, index, existing.length - index - 1);
+        current.values.set(slot, shrunk);
+    }
+
+    /**
+     * Visit every live session, e.g. to inspect per-session queue depth. Lock-free; may miss
+     * sessions registered concurrently.
+     */
+    public void forEachSession(Consumer<OutboundSession> action) {
+        Table current = table;
+        for (int i = 0; i < current.capacity(); i++) {
+            OutboundSession[] sessions = current.values.get(i);
+            if (sessions != null) {
+                for (OutboundSession session : sessions) {
+                    action.accept(session);
+                }
+            }
+        }
+    }
+
+    public synchronized int getUserCount() {
+        return userCount;
+    }
+
+    public synchronized int getSessionCount() {
+        return sessionCount;
+    }
+
+    private double totalQueuedFrames() {
+        long[] total = new long[1];
+        forEachSession(session -> total[0] += session.getQueueDepth());
+        return total[0];
+    }
+
+    private double maxQueueDepth() {
+        int[] max = new int[1];
+        forEachSession(session -> max[0] = Math.max(max[0], session.getQueueDepth()));
+        return max[0];
+    }
+
+    // Rebuilds into a table sized for the live users, dropping tombstones, then publishes it
+    private Table resize(Table old) {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < (userCount + 1) * 4) {
+            capacity <<= 1;
+        }
+        Table grown = new Table(capacity);
+        for (int i = 0; i < old.capacity(); i++) {
+            OutboundSession[] sessions = old.values.get(i);
+            if (sessions != null && sessions.length > 0) {
+                int slot = grown.claim(old.keys.get(i));
+                grown.values.set(slot, sessions);
+            }
+        }
+        table = grown;
+        return grown;
+    }
+
+    /**
+     * Linear-probing table. Keys are written once per slot and never cleared; a value is always
+     * published before its key so a reader that finds the key also sees the value.
+     * User ids are positive, so 0 marks an empty slot.
+     */
+    private static final class Table {
+        final AtomicLongArray keys;
+        final AtomicReferenceArray<OutboundSession[]> values;
+        final int mask;
+        int used;
+
+        Table(int capacity) {
+            this.keys = new AtomicLongArray(capacity);
+            this.values = new AtomicReferenceArray<>(capacity);
+            this.mask = capacity - 1;
+        }
+
+        int capacity() {
+            return mask + 1;
+        }
+
+        int find(long key) {
+            int slot = hash(key) & mask;
+            while (true) {
+                long existing = keys.get(slot);
+                if (existing == key) {
+                    return slot;
+                }
+                if (existing == 0) {
+                    return -1;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        // Caller holds the registry monitor and has checked the key is absent
+        int claim(long key) {
+            int slot = hash(key) & mask;
+            while (keys.get(slot) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            values.set(slot, NONE);
+            keys.set(slot, key);
+            used++;
+            return slot;
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
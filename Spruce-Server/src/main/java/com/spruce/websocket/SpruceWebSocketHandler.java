@@ -1,45 +1,72 @@
 package com.spruce.websocket;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.spruce.cluster.ClusterRouter;
 import com.spruce.model.Message;
-import com.spruce.model.User;
-import com.spruce.repository.MessageRepository;
-import com.spruce.repository.UserRepository;
+import com.spruce.model.UserKeys;
+import com.spruce.service.GroupMembershipCache;
 import com.spruce.service.JwtService;
+import com.spruce.service.KeyDirectory;
+import com.spruce.service.MessagePersistenceService;
+import com.spruce.service.OfflineInboxService;
+import com.spruce.service.PresenceService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
-import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
 
 import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 @Component
-public class SpruceWebSocketHandler extends TextWebSocketHandler {
+public class SpruceWebSocketHandler extends AbstractWebSocketHandler {
     
     private static final Logger logger = LoggerFactory.getLogger(SpruceWebSocketHandler.class);
     
-    // Map userId -> WebSocketSession
-    private final Map<Long, WebSocketSession> sessions = new ConcurrentHashMap<>();
+    private static final String OUTBOUND_ATTRIBUTE = "spruce.outbound";
+    private static final String SEND_LOCK_ATTRIBUTE = "spruce.sendLock";
     
-    // Map sessionId -> userId for reverse lookup
-    private final Map<String, Long> sessionToUserId = new ConcurrentHashMap<>();
-    
-    private final MessageRepository messageRepository;
-    private final UserRepository userRepository;
+    private final MessagePersistenceService messagePersistenceService;
+    private final GroupMembershipCache groupMembershipCache;
+    private final KeyDirectory keyDirectory;
     private final JwtService jwtService;
+    private final OutboundSessionFactory outboundSessionFactory;
+    private final SessionRegistry sessionRegistry;
+    private final ClusterRouter clusterRouter;
+    private final OfflineInboxService offlineInboxService;
+    private final PresenceService presenceService;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
-    public SpruceWebSocketHandler(MessageRepository messageRepository, UserRepository userRepository, JwtService jwtService) {
-        this.messageRepository = messageRepository;
-        this.userRepository = userRepository;
+    public SpruceWebSocketHandler(MessagePersistenceService messagePersistenceService,
+                                  GroupMembershipCache groupMembershipCache,
+                                  KeyDirectory keyDirectory,
+                                  JwtService jwtService,
+                                  OutboundSessionFactory outboundSessionFactory,
+                                  SessionRegistry sessionRegistry,
+                                  ClusterRouter clusterRouter,
+                                  OfflineInboxService offlineInboxService,
+                                  PresenceService presenceService) {
+        this.messagePersistenceService = messagePersistenceService;
+        this.groupMembershipCache = groupMembershipCache;
+        this.keyDirectory = keyDirectory;
         this.jwtService = jwtService;
+        this.outboundSessionFactory = outboundSessionFactory;
+        this.sessionRegistry = sessionRegistry;
+        this.clusterRouter = clusterRouter;
+        this.offlineInboxService = offlineInboxService;
+        this.presenceService = presenceService;
     }
 
     @Override
@@ -60,15 +87,17 @@ public class SpruceWebSocketHandler extends TextWebSocketHandler {
             
             if (token != null) {
                 try {
-                    String username = jwtService.extractUsername(token);
-                    if (username != null && jwtService.validateToken(token)) {
-                        User user = userRepository.findByUsername(username).orElse(null);
-                        if (user != null) {
-                            sessions.put(user.getId(), session);
-                            sessionToUserId.put(session.getId(), user.getId());
-                            logger.info("Authenticated WebSocket session for user: {} (id: {})", username, user.getId());
-                            return;
-                        }
+                    JwtService.VerifiedToken verified = jwtService.verify(token).orElse(null);
+                    if (verified != null) {
+                        OutboundSession outbound = outboundSessionFactory.wrap(session, verified.userId());
+                        session.getAttributes().put(OUTBOUND_ATTRIBUTE, outbound);
+                        sessionRegistry.register(outbound);
+                        clusterRouter.userConnected(verified.userId());
+                        presenceService.sessionChanged(verified.userId());
+                        logger.info("Authenticated WebSocket session for user: {} (id: {})", verified.username(), verified.userId());
+                        presenceService.sendSnapshot(outbound);
+                        offlineInboxService.drain(outbound);
+                        return;
                     }
                 } catch (Exception e) {
                     logger.error("Error authenticating WebSocket session", e);
@@ -82,10 +111,12 @@ public class SpruceWebSocketHandler extends TextWebSocketHandler {
 
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
-        Long userId = sessionToUserId.remove(session.getId());
-        if (userId != null) {
-            sessions.remove(userId);
-            logger.info("WebSocket connection closed for user: {}", userId);
+        OutboundSession outbound = (OutboundSession) session.getAttributes().get(OUTBOUND_ATTRIBUTE);
+        if (outbound != null) {
+            sessionRegistry.unregister(outbound);
+            clusterRouter.userDisconnected(outbound.getUserId());
+            presenceService.sessionChanged(outbound.getUserId());
+            logger.info("WebSocket connection closed for user: {}", outbound.getUserId());
         } else {
             logger.info("WebSocket connection closed: {}", session.getId());
         }
@@ -94,16 +125,17 @@ public class SpruceWebSocketHandler extends TextWebSocketHandler {
     @Override
     protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
         try {
-            Long senderId = sessionToUserId.get(session.getId());
-            if (senderId == null) {
+            OutboundSession outbound = (OutboundSession) session.getAttributes().get(OUTBOUND_ATTRIBUTE);
+            if (outbound == null) {
                 logger.warn("Received message from unauthenticated session: {}", session.getId());
                 session.close(CloseStatus.POLICY_VIOLATION);
                 return;
             }
+            Long senderId = outbound.getUserId();
             
-            @SuppressWarnings("unchecked")
-            Map<String, Object> payload = objectMapper.readValue(message.getPayload(), Map.class);
-            String type = (String) payload.get("type");
+            // Only the routing fields are extracted; the rest of the frame is relayed as sent
+            InboundFrame frame = InboundFrame.scan(message.getPayload());
+            String type = frame.getType();
             
             if (type == null) {
                 logger.warn("Message missing type field");
@@ -112,10 +144,16 @@ public class SpruceWebSocketHandler extends TextWebSocketHandler {
             
             switch (type) {
                 case "handshake":
-                    handleHandshake(session, senderId, payload);
+                    handleHandshake(session, senderId, frame);
                     break;
                 case "message":
-                    handleMessage(session, senderId, payload);
+                    handleMessage(session, senderId, frame);
+                    break;
+                case "group_message":
+                    handleGroupMessage(session, senderId, frame);
+                    break;
+                case "inbox_ack":
+                    handleInboxAck(senderId, frame);
                     break;
                 default:
                     logger.warn("Unknown message type: {}", type);
@@ -123,102 +161,251 @@ public class SpruceWebSocketHandler extends TextWebSocketHandler {
         } catch (Exception e) {
             logger.error("Error handling message", e);
             try {
-                session.sendMessage(new TextMessage("{\"error\": \"Invalid message format\"}"));
+                send(session, "{\"error\": \"Invalid message format\"}");
             } catch (IOException ioException) {
                 logger.error("Error sending error message", ioException);
             }
         }
     }
 
-    private void handleHandshake(WebSocketSession session, Long senderId, Map<String, Object> payload) throws IOException {
-        Object receiverIdObj = payload.get("receiverId");
-        if (receiverIdObj == null) {
+    private void handleHandshake(WebSocketSession session, Long senderId, InboundFrame frame) throws IOException {
+        Long receiverId = frame.getReceiverId();
+        if (receiverId == null) {
             logger.warn("Handshake missing receiverId");
             return;
         }
         
-        Long receiverId;
-        if (receiverIdObj instanceof Number) {
-            receiverId = ((Number) receiverIdObj).longValue();
-        } else {
-            receiverId = Long.valueOf(receiverIdObj.toString());
-        }
-        
         // Get sender's public keys
-        User sender = userRepository.findById(senderId).orElse(null);
+        UserKeys sender = keyDirectory.get(senderId).orElse(null);
         if (sender == null) {
             logger.warn("Sender not found: {}", senderId);
             return;
         }
         
-        // Create handshake relay message with sender's public keys
-        Map<String, Object> handshakeRelay = new HashMap<>(payload);
-        handshakeRelay.put("type", "handshake"); // Explicitly set type
-        handshakeRelay.put("senderId", senderId);
+        // Relay the handshake with the sender's public keys.
         // Use public keys from database (they should match what was sent, but DB is source of truth)
-        handshakeRelay.put("sender_pub_x25519", sender.getPermPubX25519());
-        handshakeRelay.put("sender_kyber_pub", sender.getKyberPub());
-        handshakeRelay.put("sender_dilithium_pub", sender.getDilithiumPub());
+        String relayJson = frame.splice()
+                .field("senderId", senderId)
+                .field("sender_pub_x25519", sender.permPubX25519())
+                .field("sender_kyber_pub", sender.kyberPub())
+                .field("sender_dilithium_pub", sender.dilithiumPub())
+                .build();
         
-        // Relay handshake to receiver
-        WebSocketSession receiverSession = sessions.get(receiverId);
-        if (receiverSession != null && receiverSession.isOpen()) {
-            String relayJson = objectMapper.writeValueAsString(handshakeRelay);
-            logger.debug("Relaying handshake to receiver {}: {}", receiverId, relayJson);
-            receiverSession.sendMessage(new TextMessage(relayJson));
-            logger.info("Handshake relayed from {} to {}", senderId, receiverId);
-        } else {
-            logger.warn("Receiver session not found or closed: {} (available sessions: {})", 
-                        receiverId, sessions.keySet());
-        }
+        // Relay handshake to receiver, on this node or any other
+        logger.debug("Relaying handshake to receiver {}: {}", receiverId, relayJson);
+        clusterRouter.routeToUser(receiverId, RelayFrame.text(relayJson)).thenAccept(online -> {
+            if (online) {
+                logger.info("Handshake relayed from {} to {}", senderId, receiverId);
+            } else {
+                logger.warn("Receiver not connected: {} ({} users online locally)", receiverId, sessionRegistry.getUserCount());
+            }
+        });
     }
 
-    private void handleMessage(WebSocketSession session, Long senderId, Map<String, Object> payload) throws IOException {
-        Object receiverIdObj = payload.get("receiverId");
-        if (receiverIdObj == null) {
+    private void handleMessage(WebSocketSession session, Long senderId, InboundFrame frame) throws IOException {
+        Long receiverId = frame.getReceiverId();
+        if (receiverId == null) {
             logger.warn("Message missing receiverId");
             return;
         }
-        
-        Long receiverId;
-        if (receiverIdObj instanceof Number) {
-            receiverId = ((Number) receiverIdObj).longValue();
-        } else {
-            receiverId = Long.valueOf(receiverIdObj.toString());
+        if (!Message.isStorable(frame.getCiphertext(), frame.getIv())) {
+            send(session, "{\"error\": \"Invalid message format\"}");
+            return;
         }
-        String ciphertext = (String) payload.get("ciphertext");
-        String iv = (String) payload.get("iv");
         
-        // Save message to database
+        // Hand the message to the write-behind stage; the relay below does not wait for the commit
         Message message = new Message();
         message.setSenderId(senderId);
         message.setReceiverId(receiverId);
-        message.setCiphertext(ciphertext);
-        message.setIv(iv);
-        messageRepository.save(message);
+        message.setCiphertext(frame.getCiphertext());
+        message.setIv(frame.getIv());
+        Object clientId = frame.getClientId();
+        CompletableFuture<Message> persisted = messagePersistenceService.submit(message);
+        persisted.whenComplete((saved, error) ->
+            confirmPersisted(session, message, clientId, saved, error));
         
-        // Create message relay with senderId
-        Map<String, Object> messageRelay = new HashMap<>(payload);
-        messageRelay.put("type", "message"); // Explicitly set type to ensure it's present
-        messageRelay.put("senderId", senderId);
-        messageRelay.put("id", message.getId());
-        messageRelay.put("ts", System.currentTimeMillis());
+        // Relay the client's frame with senderId and ts appended
+        String relayJson = frame.splice()
+                .field("senderId", senderId)
+                .field("id", message.getId())
+                .field("ts", System.currentTimeMillis())
+                .build();
         
-        // Relay to receiver
-        WebSocketSession receiverSession = sessions.get(receiverId);
-        if (receiverSession != null && receiverSession.isOpen()) {
-            String relayJson = objectMapper.writeValueAsString(messageRelay);
-            logger.debug("Relaying message to receiver {}: {}", receiverId, relayJson);
-            receiverSession.sendMessage(new TextMessage(relayJson));
-            logger.info("Message relayed from {} to {}", senderId, receiverId);
+        // Relay to receiver, on this node or any other
+        logger.debug("Relaying message to receiver {}: {}", receiverId, relayJson);
+        relayDirect(senderId, receiverId, RelayFrame.text(relayJson), persisted);
+    }
+
+    /**
+     * Binary message/group_message frames from sessions that negotiated the binary subprotocol.
+     * The ciphertext is relayed as the same bytes; base64 is only produced for storage and for
+     * recipients on the text protocol.
+     */
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) throws Exception {
+        OutboundSession outbound = (OutboundSession) session.getAttributes().get(OUTBOUND_ATTRIBUTE);
+        if (outbound == null) {
+            logger.warn("Received message from unauthenticated session: {}", session.getId());
+            session.close(CloseStatus.POLICY_VIOLATION);
+            return;
+        }
+        long senderId = outbound.getUserId();
+
+        // The container may reuse its buffer, so take one copy that every recipient then shares
+        ByteBuffer payload = message.getPayload();
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        BinaryFrameCodec.Frame frame;
+        try {
+            frame = BinaryFrameCodec.decode(bytes);
+            if (frame.ivLength() != 0 && frame.ivLength() != Message.IV_BYTES) {
+                throw new IllegalArgumentException("IV must be " + Message.IV_BYTES + " bytes");
+            }
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            logger.warn("Malformed binary frame from user {}: {}", senderId, e.getMessage());
+            send(session, "{\"error\": \"Invalid message format\"}");
+            return;
+        }
+
+        Message stored = new Message();
+        stored.setSenderId(senderId);
+        stored.setCiphertext(frame.ciphertextBase64());
+        stored.setIv(frame.ivBase64());
+        if (frame.isGroup()) {
+            stored.setGroupId(frame.targetId());
+            long[] members = groupMembershipCache.getMembers(frame.targetId());
+            if (Arrays.binarySearch(members, senderId) < 0) {
+                logger.warn("User {} is not a member of group {}", senderId, frame.targetId());
+                send(session, "{\"error\": \"Not a member of this group\"}");
+                return;
+            }
+            messagePersistenceService.submit(stored).whenComplete((saved, error) ->
+                confirmPersisted(session, stored, frame.clientId(), saved, error));
+            BinaryFrameCodec.stamp(bytes, senderId, stored.getId(), System.currentTimeMillis());
+            int delivered = clusterRouter.routeToGroup(frame.targetId(), senderId, members, RelayFrame.binary(bytes));
+            logger.info("Binary group message from {} to group {} fanned out to {} of {} members on this node",
+                        senderId, frame.targetId(), delivered, members.length - 1);
         } else {
-            logger.warn("Receiver session not found or closed: {} (available sessions: {})", 
-                        receiverId, sessions.keySet());
+            stored.setReceiverId(frame.targetId());
+            CompletableFuture<Message> persisted = messagePersistenceService.submit(stored);
+            persisted.whenComplete((saved, error) ->
+                confirmPersisted(session, stored, frame.clientId(), saved, error));
+            BinaryFrameCodec.stamp(bytes, senderId, stored.getId(), System.currentTimeMillis());
+            relayDirect(senderId, frame.targetId(), RelayFrame.binary(bytes), persisted);
         }
     }
-}
 
+    private void relayDirect(long senderId, long receiverId, RelayFrame relay, CompletableFuture<Message> persisted) {
+        clusterRouter.routeToUser(receiverId, relay).thenAccept(online -> {
+            if (online) {
+                logger.info("Message relayed from {} to {}", senderId, receiverId);
+            } else {
+                // Held in the receiver's inbox until they reconnect and acknowledge it
+                logger.info("Receiver {} offline, queueing message from {} for later delivery", receiverId, senderId);
+                persisted.thenAccept(saved -> offlineInboxService.enqueue(receiverId, saved.getId()));
+            }
+        });
+    }
 
+    private void handleGroupMessage(WebSocketSession session, Long senderId, InboundFrame frame) throws IOException {
+        Long groupId = frame.getGroupId();
+        if (groupId == null) {
+            logger.warn("Group message missing groupId");
+            return;
+        }
+        if (!Message.isStorable(frame.getCiphertext(), frame.getIv())) {
+            send(session, "{\"error\": \"Invalid message format\"}");
+            return;
+        }
+        
+        long[] members = groupMembershipCache.getMembers(groupId);
+        if (Arrays.binarySearch(members, senderId) < 0) {
+            logger.warn("User {} is not a member of group {}", senderId, groupId);
+            send(session, "{\"error\": \"Not a member of this group\"}");
+            return;
+        }
+        
+        // Persisted once for the whole group
+        Message message = new Message();
+        message.setSenderId(senderId);
+        message.setGroupId(groupId);
+        message.setCiphertext(frame.getCiphertext());
+        message.setIv(frame.getIv());
+        Object clientId = frame.getClientId();
+        messagePersistenceService.submit(message).whenComplete((saved, error) ->
+            confirmPersisted(session, message, clientId, saved, error));
+        
+        // Built once and shared by every recipient
+        RelayFrame relay = RelayFrame.text(frame.splice()
+                .field("groupId", groupId)
+                .field("senderId", senderId)
+                .field("id", message.getId())
+                .field("ts", System.currentTimeMillis())
+                .build());
+        
+        // Enqueueing never blocks; each member's flusher writes in parallel with the others
+        int delivered = clusterRouter.routeToGroup(groupId, senderId, members, relay);
+        logger.info("Group message from {} to group {} fanned out to {} of {} members on this node",
+                    senderId, groupId, delivered, members.length - 1);
+    }
 
+    private void handleInboxAck(Long userId, InboundFrame frame) {
+        List<Long> ids = frame.getIds();
+        if (ids == null) {
+            logger.warn("Inbox ack missing ids");
+            return;
+        }
+        offlineInboxService.acknowledge(userId, ids);
+    }
 
+    /**
+     * Tell the sender whether its message reached the database. Runs on a message writer thread.
+     */
+    private void confirmPersisted(WebSocketSession session, Message message, Object clientId, Message saved, Throwable error) {
+        if (!session.isOpen()) {
+            return;
+        }
+        Map<String, Object> ack = new HashMap<>();
+        if (message.getGroupId() != null) {
+            ack.put("groupId", message.getGroupId());
+        } else {
+            ack.put("receiverId", message.getReceiverId());
+        }
+        if (clientId != null) {
+            ack.put("clientId", clientId);
+        }
+        if (error == null) {
+            ack.put("type", "message_persisted");
+            ack.put("id", saved.getId());
+        } else {
+            logger.error("Failed to persist message from {}", message.getSenderId(), error);
+            ack.put("type", "message_failed");
+            ack.put("error", "Message could not be stored");
+        }
+        try {
+            send(session, objectMapper.writeValueAsString(ack));
+        } catch (IOException e) {
+            logger.error("Error sending persistence confirmation", e);
+        }
+    }
 
+    /**
+     * Reply on a session through its outbound buffer. Sessions that never authenticated
+     * have no buffer and are written directly under a per-session lock. That is a
+     * ReentrantLock rather than a monitor so a virtual thread blocked in the write can unmount.
+     */
+    private void send(WebSocketSession session, String json) throws IOException {
+        OutboundSession outbound = (OutboundSession) session.getAttributes().get(OUTBOUND_ATTRIBUTE);
+        if (outbound != null) {
+            outbound.send(new TextMessage(json));
+            return;
+        }
+        Lock lock = (Lock) session.getAttributes().computeIfAbsent(SEND_LOCK_ATTRIBUTE, k -> new ReentrantLock());
+        lock.lock();
+        try {
+            session.sendMessage(new TextMessage(json));
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+-- Schema as Hibernate created it before migrations were introduced. Databases that already
+-- have these tables are baselined at this version instead of running it.
+
+CREATE TABLE users (
+    id               BIGINT       NOT NULL AUTO_INCREMENT,
+    email            VARCHAR(255),
+    password         VARCHAR(255) NOT NULL,
+    username         VARCHAR(255) NOT NULL,
+    token_generation BIGINT       NOT NULL,
+    status           VARCHAR(255),
+    created_at       DATETIME(6)  NOT NULL,
+    updated_at       DATETIME(6)  NOT NULL,
+    PRIMARY KEY (id),
+    UNIQUE KEY uk_users_email (email),
+    UNIQUE KEY uk_users_username (username)
+) ENGINE = InnoDB;
+
+CREATE TABLE user_profiles (
+    user_id BIGINT NOT NULL,
+    avatar  TEXT,
+    bio     TEXT,
+    PRIMARY KEY (user_id)
+) ENGINE = InnoDB;
+
+CREATE TABLE user_keys (
+    user_id         BIGINT NOT NULL,
+    perm_pub_x25519 TEXT,
+    kyber_pub       TEXT,
+    dilithium_pub   TEXT,
+    version         BIGINT NOT NULL,
+    PRIMARY KEY (user_id)
+) ENGINE = InnoDB;
+
+CREATE TABLE contacts (
+    id         BIGINT       NOT NULL AUTO_INCREMENT,
+    user_id    BIGINT       NOT NULL,
+    contact_id BIGINT       NOT NULL,
+    status     VARCHAR(255),
+    created_at DATETIME(6)  NOT NULL,
+    PRIMARY KEY (id),
+    UNIQUE KEY uk_contact_user_contact (user_id, contact_id)
+) ENGINE = InnoDB;
+
+CREATE TABLE `groups` (
+    id          BIGINT       NOT NULL AUTO_INCREMENT,
+    name        VARCHAR(255) NOT NULL,
+    description TEXT,
+    owner_id    BIGINT       NOT NULL,
+    created_at  DATETIME(6)  NOT NULL,
+    PRIMARY KEY (id)
+) ENGINE = InnoDB;
+
+CREATE TABLE group_members (
+    group_id BIGINT NOT NULL,
+    user_id  BIGINT NOT NULL,
+    PRIMARY KEY (group_id, user_id),
+    KEY idx_group_members_user (user_id, group_id)
+) ENGINE = InnoDB;
+
+CREATE TABLE messages (
+    id          BIGINT      NOT NULL,
+    sender_id   BIGINT      NOT NULL,
+    receiver_id BIGINT,
+    group_id    BIGINT,
+    ciphertext  TEXT        NOT NULL,
+    iv          TEXT,
+    metadata    TEXT,
+    timestamp   DATETIME(6) NOT NULL,
+    PRIMARY KEY (id)
+) ENGINE = InnoDB;
+
+CREATE TABLE pending_deliveries (
+    id         BIGINT NOT NULL AUTO_INCREMENT,
+    user_id    BIGINT NOT NULL,
+    message_id BIGINT NOT NULL,
+    PRIMARY KEY (id),
+    UNIQUE KEY uk_pending_user_message (user_id, message_id)
+) ENGINE = InnoDB;
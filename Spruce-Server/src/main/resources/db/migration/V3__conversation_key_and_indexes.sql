@@ -0,0 +1,15 @@
+-- Direct messages carry their two participants as a normalized pair (lower id first), so
+-- both directions of a conversation share one index range and history pages are a single
+-- range scan in id order instead of an OR over (sender_id, receiver_id) that scans the table.
+ALTER TABLE messages
+    ADD COLUMN peer_low  BIGINT NULL,
+    ADD COLUMN peer_high BIGINT NULL;
+
+UPDATE messages
+SET peer_low  = LEAST(sender_id, receiver_id),
+    peer_high = GREATEST(sender_id, receiver_id)
+WHERE receiver_id IS NOT NULL AND group_id IS NULL;
+
+-- Message ids are time-ordered, so (…, id) serves both the keyset pages and the export cursor
+CREATE INDEX idx_messages_conversation ON messages (peer_low, peer_high, id);
+CREATE INDEX idx_messages_group ON messages (group_id, id);
@@ -0,0 +1,32 @@
+-- Ciphertext, IV and public keys move from base64 TEXT to the bytes they encode. The text
+-- columns are renamed to *_b64 and kept, so this runs in seconds on any table size: the
+-- application writes only the binary columns, reads coalesce(binary, from_base64(text)), and
+-- BinaryColumnBackfill converts existing rows in the background. A later migration drops the
+-- *_b64 columns once the backfill has reported that no rows are left.
+
+ALTER TABLE messages
+    CHANGE COLUMN ciphertext ciphertext_b64 TEXT NULL,
+    CHANGE COLUMN iv iv_b64 TEXT NULL,
+    ALGORITHM = INPLACE, LOCK = NONE;
+
+ALTER TABLE messages
+    ADD COLUMN ciphertext MEDIUMBLOB NULL,
+    ADD COLUMN iv BINARY(12) NULL;
+
+ALTER TABLE user_keys
+    RENAME COLUMN perm_pub_x25519 TO perm_pub_x25519_b64,
+    RENAME COLUMN kyber_pub TO kyber_pub_b64,
+    RENAME COLUMN dilithium_pub TO dilithium_pub_b64;
+
+ALTER TABLE user_keys
+    ADD COLUMN perm_pub_x25519 VARBINARY(64) NULL,
+    ADD COLUMN kyber_pub BLOB NULL,
+    ADD COLUMN dilithium_pub BLOB NULL;
+
+-- Where each backfill has got to, so a restart resumes instead of rescanning
+CREATE TABLE backfill_progress (
+    name        VARCHAR(64) NOT NULL,
+    last_key    BIGINT      NOT NULL,
+    finished_at DATETIME(6),
+    PRIMARY KEY (name)
+) ENGINE = InnoDB;
@@ -0,0 +1,181 @@
+package com.spruce.cluster;
+
+import com.spruce.repository.GroupMemberRepository;
+import com.spruce.service.GroupMembershipCache;
+import com.spruce.websocket.OutboundSession;
+import com.spruce.websocket.OutboundSessionFactory;
+import com.spruce.websocket.RelayFrame;
+import com.spruce.websocket.SessionRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Three routers in one JVM on the loopback transport: relays to users on other nodes, the
+ * partitioned presence directory, and cache invalidations.
+ */
+class ClusterRouterIT {
+
+    private static final String NODES = "node-0@localhost:9400,node-1@localhost:9401,node-2@localhost:9402";
+    private static final long GROUP_ID = 5;
+
+    private final List<Node> nodes = new ArrayList<>();
+
+    @BeforeEach
+    void startNodes() {
+        for (int i = 0; i < 3; i++) {
+            nodes.add(new Node(i));
+        }
+    }
+
+    @AfterEach
+    void stopNodes() {
+        for (Node node : nodes) {
+            node.router.stop();
+            node.sessionFactory.shutdown();
+        }
+    }
+
+    @Test
+    void relaysToUserConnectedToAnotherNode() throws Exception {
+        for (long userId = 100; userId < 103; userId++) {
+            WebSocketSession socket = nodes.get(2).connect(userId);
+            long receiver = userId;
+
+            // The publish and the lookup travel to the partition owner from different nodes
+            awaitTrue(() -> routed(nodes.get(0), receiver, "{\"type\":\"message\",\"ciphertext\":\"AA==\"}"));
+            verify(socket, timeout(2000).atLeastOnce()).sendMessage(
+                    new TextMessage("{\"type\":\"message\",\"ciphertext\":\"AA==\"}"));
+        }
+    }
+
+    @Test
+    void reportsUsersNotConnectedAnywhereAsOffline() throws Exception {
+        assertThat(nodes.get(0).router.routeToUser(200, RelayFrame.text("{}")).get(5, TimeUnit.SECONDS)).isFalse();
+
+        WebSocketSession socket = nodes.get(1).connect(200);
+        awaitTrue(() -> routed(nodes.get(2), 200, "{}"));
+
+        nodes.get(1).disconnect(200, socket);
+        awaitTrue(() -> !routed(nodes.get(2), 200, "{}"));
+    }
+
+    @Test
+    void fansGroupMessagesOutOnEveryNode() throws Exception {
+        when(nodes.get(1).groupMembers.findMemberIds(GROUP_ID)).thenReturn(List.of(1L, 300L));
+        WebSocketSession socket = nodes.get(1).connect(300);
+
+        nodes.get(0).router.routeToGroup(GROUP_ID, 1, new long[] {1, 300},
+                RelayFrame.text("{\"type\":\"group_message\",\"groupId\":5}"));
+
+        verify(socket, timeout(2000)).sendMessage(new TextMessage("{\"type\":\"group_message\",\"groupId\":5}"));
+    }
+
+    @Test
+    void deliversInvalidationsToTheTopicListenerOnEveryOtherNode() {
+        List<Queue<String>> received = new ArrayList<>();
+        for (Node node : nodes) {
+            Queue<String> keys = new ConcurrentLinkedQueue<>();
+            node.router.addInvalidationListener("test", keys::add);
+            received.add(keys);
+        }
+
+        nodes.get(0).router.invalidate("test", "a:1");
+
+        awaitTrue(() -> received.get(1).contains("a:1") && received.get(2).contains("a:1"));
+        assertThat(received.get(0)).isEmpty();
+    }
+
+    @Test
+    void appliesGroupJoinsToCachedMemberSetsOnOtherNodes() {
+        for (Node node : nodes) {
+            when(node.groupMembers.findMemberIds(GROUP_ID)).thenReturn(List.of(1L, 2L));
+            assertThat(node.groupCache.getMembers(GROUP_ID)).containsExactly(1, 2);
+        }
+
+        nodes.get(0).groupCache.memberChanged(GROUP_ID, 400, true);
+
+        assertThat(nodes.get(0).groupCache.getMembers(GROUP_ID)).containsExactly(1, 2, 400);
+        awaitTrue(() -> nodes.get(1).groupCache.isMember(GROUP_ID, 400L) && nodes.get(2).groupCache.isMember(GROUP_ID, 400L));
+    }
+
+    private static boolean routed(Node from, long userId, String json) {
+        try {
+            return from.router.routeToUser(userId, RelayFrame.text(json)).get(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Condition not met within 5s");
+            }
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    private static final class Node {
+        final SessionRegistry sessions = new SessionRegistry(new SimpleMeterRegistry());
+        final OutboundSessionFactory sessionFactory = new OutboundSessionFactory(1000, 4_194_304, 10_000,
+                OutboundSession.OverflowPolicy.DROP_OLDEST, 1,
+                new StaticListableBeanFactory().getBeanProvider(OutboundSession.SpillHandler.class),
+                new SimpleMeterRegistry());
+        final GroupMemberRepository groupMembers = mock(GroupMemberRepository.class);
+        final ClusterRouter router;
+        final GroupMembershipCache groupCache;
+
+        @SuppressWarnings("unchecked")
+        Node(int index) {
+            ObjectProvider<GroupMembershipCache> groupCacheProvider = mock(ObjectProvider.class);
+            router = new ClusterRouter(sessions, groupCacheProvider, true,
+                    "node-" + index, index, NODES, "loopback", "", "", 2000);
+            groupCache = new GroupMembershipCache(groupMembers, router);
+            when(groupCacheProvider.getObject()).thenReturn(groupCache);
+            router.start();
+        }
+
+        WebSocketSession connect(long userId) {
+            WebSocketSession socket = mock(WebSocketSession.class);
+            when(socket.isOpen()).thenReturn(true);
+            when(socket.getId()).thenReturn("ws-" + userId);
+            sessions.register(sessionFactory.wrap(socket, userId));
+            router.userConnected(userId);
+            return socket;
+        }
+
+        void disconnect(long userId, WebSocketSession socket) {
+            for (OutboundSession session : sessions.get(userId)) {
+                if (session.getDelegate() == socket) {
+                    sessions.unregister(session);
+                }
+            }
+            router.userDisconnected(userId);
+        }
+    }
+}
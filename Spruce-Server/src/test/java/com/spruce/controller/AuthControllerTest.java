@@ -0,0 +1,108 @@
+package com.spruce.controller;
+
+import com.spruce.model.User;
+import com.spruce.service.AuthService;
+import com.spruce.service.JwtService;
+import com.spruce.service.PasswordHashingService;
+import com.spruce.service.TokenGenerations;
+import com.spruce.service.UserService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AuthControllerTest {
+
+    private final PasswordEncoder passwordEncoder = mock(PasswordEncoder.class);
+    private final UserService userService = mock(UserService.class);
+    private final PasswordHashingService hashing =
+            new PasswordHashingService(passwordEncoder, 10, 1, 1, new SimpleMeterRegistry());
+    private final AuthService authService = new AuthService(userService, hashing, mock(JwtService.class),
+            mock(TokenGenerations.class), 1);
+    private final AuthController controller = new AuthController(authService);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void shutdown() {
+        release.countDown();
+        hashing.shutdown();
+        authService.shutdown();
+    }
+
+    @Test
+    void answersTooManyRequestsWhenHashingIsSaturated() throws Exception {
+        when(userService.findByUsername("alice")).thenReturn(Optional.of(user(1L, "alice")));
+        when(passwordEncoder.matches(anyString(), anyString())).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return true;
+        });
+        CompletableFuture<ResponseEntity<Map<String, Object>>> running = controller.login(credentials());
+        CompletableFuture<ResponseEntity<Map<String, Object>>> queued = controller.login(credentials());
+
+        ResponseEntity<Map<String, Object>> rejected = controller.login(credentials()).get(1, TimeUnit.SECONDS);
+
+        assertThat(rejected.getStatusCode().value()).isEqualTo(429);
+        assertThat(rejected.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("1");
+        release.countDown();
+        assertThat(running.get(5, TimeUnit.SECONDS).getStatusCode().value()).isEqualTo(200);
+        assertThat(queued.get(5, TimeUnit.SECONDS).getStatusCode().value()).isEqualTo(200);
+    }
+
+    @Test
+    void answersUnauthorizedForAWrongPassword() throws Exception {
+        when(userService.findByUsername("alice")).thenReturn(Optional.of(user(1L, "alice")));
+        when(passwordEncoder.matches(anyString(), anyString())).thenReturn(false);
+
+        ResponseEntity<Map<String, Object>> response = controller.login(credentials()).get(5, TimeUnit.SECONDS);
+
+        assertThat(response.getStatusCode().value()).isEqualTo(401);
+    }
+
+    @Test
+    void savesNewUsersOffTheHashingThreads() throws Exception {
+        when(passwordEncoder.encode(anyString())).thenReturn("$2a$10$hash");
+        AtomicReference<String> savedOn = new AtomicReference<>();
+        when(userService.register(any(), any())).thenAnswer(invocation -> {
+            savedOn.set(Thread.currentThread().getName());
+            User user = invocation.getArgument(0);
+            user.setId(1L);
+            return user;
+        });
+
+        ResponseEntity<Map<String, Object>> response = controller.register(Map.of(
+                "username", "alice",
+                "password", "secret",
+                "publicKeys", Map.of("perm_pub_x25519", "AA==", "kyber_pub", "AA==", "dilithium_pub", "AA=="))
+        ).get(5, TimeUnit.SECONDS);
+
+        assertThat(response.getStatusCode().value()).isEqualTo(200);
+        assertThat(savedOn.get()).startsWith("auth-write-");
+    }
+
+    private static Map<String, String> credentials() {
+        return Map.of("username", "alice", "password", "secret");
+    }
+
+    private static User user(Long id, String username) {
+        User user = new User();
+        user.setId(id);
+        user.setUsername(username);
+        user.setPassword("$2a$10$abcdefghijklmnopqrstuv");
+        return user;
+    }
+}
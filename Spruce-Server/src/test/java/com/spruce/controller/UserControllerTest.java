@@ -0,0 +1,52 @@
+package com.spruce.controller;
+
+import com.spruce.model.UserKeys;
+import com.spruce.service.AuthService;
+import com.spruce.service.KeyDirectory;
+import com.spruce.service.UserService;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class UserControllerTest {
+
+    private final KeyDirectory keyDirectory = mock(KeyDirectory.class);
+    private final UserController controller =
+            new UserController(mock(UserService.class), mock(AuthService.class), keyDirectory);
+
+    @Test
+    void rejectsBulkKeyIdsThatAreNotNumbers() {
+        for (Object bad : Arrays.asList("abc", null, Map.of("id", 1), List.of(1))) {
+            ResponseEntity<Map<String, Object>> response =
+                    controller.getUserKeysBulk(Map.of("ids", Arrays.asList(1, bad)));
+
+            assertThat(response.getStatusCode().value()).isEqualTo(400);
+        }
+        verifyNoInteractions(keyDirectory);
+    }
+
+    @Test
+    void sortsBulkKeysIntoChangedUnchangedAndMissing() {
+        when(keyDirectory.getAll(Set.of(1L, 2L, 3L))).thenReturn(Map.of(
+                1L, new UserKeys(1L, "AA==", null, null, 4),
+                2L, new UserKeys(2L, "AA==", null, null, 1)));
+
+        ResponseEntity<Map<String, Object>> response = controller.getUserKeysBulk(Map.of(
+                "ids", List.of(1, "2", 3),
+                "known", Map.of("1", 4, "2", 0)));
+
+        assertThat(response.getStatusCode().value()).isEqualTo(200);
+        assertThat(response.getBody().get("unchanged")).isEqualTo(List.of(1L));
+        assertThat(response.getBody().get("missing")).isEqualTo(List.of(3L));
+        assertThat((List<?>) response.getBody().get("keys")).hasSize(1);
+    }
+}
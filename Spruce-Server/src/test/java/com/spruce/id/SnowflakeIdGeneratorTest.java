@@ -0,0 +1,57 @@
+package com.spruce.id;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SnowflakeIdGeneratorTest {
+
+    private static final long NOW = SnowflakeIdGenerator.EPOCH_MILLIS + 1_000_000;
+
+    @Test
+    void staysMonotonicWhenTheClockStepsBack() {
+        AtomicLong clock = new AtomicLong(NOW);
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(3, clock::get);
+
+        long before = generator.nextId();
+        clock.set(NOW - 5_000);
+        long after = generator.nextId();
+
+        assertThat(after).isGreaterThan(before);
+        assertThat(SnowflakeIdGenerator.timestampOf(after)).isEqualTo(NOW);
+    }
+
+    @Test
+    void borrowsFromTheNextMillisecondWhenTheSequenceOverflows() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(3, () -> NOW);
+
+        long prev = generator.nextId();
+        for (int i = 1; i < 300; i++) {
+            long id = generator.nextId();
+            assertThat(id).isGreaterThan(prev);
+            prev = id;
+        }
+        assertThat(SnowflakeIdGenerator.timestampOf(prev)).isEqualTo(NOW + 2);
+    }
+
+    @Test
+    void encodesTheNodeAndStaysWithinJavaScriptSafeIntegers() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(SnowflakeIdGenerator.MAX_NODE_ID);
+
+        long id = generator.nextId();
+
+        assertThat((id >>> SnowflakeIdGenerator.SEQUENCE_BITS) & SnowflakeIdGenerator.MAX_NODE_ID)
+                .isEqualTo(SnowflakeIdGenerator.MAX_NODE_ID);
+        assertThat(id).isLessThanOrEqualTo(1L << 53);
+        assertThat(SnowflakeIdGenerator.minIdAt(SnowflakeIdGenerator.timestampOf(id))).isLessThanOrEqualTo(id);
+    }
+
+    @Test
+    void rejectsNodeIdsOutsideTheNodeBits() {
+        assertThatThrownBy(() -> new SnowflakeIdGenerator(SnowflakeIdGenerator.MAX_NODE_ID + 1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,114 @@
+package com.spruce.migration;
+
+import com.spruce.service.RecentMessageCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MessagePartitionMaintenanceTest {
+
+    private static final long BELOW_FEBRUARY = 10970726400000L;
+    private static final long BELOW_MARCH = 21233664000000L;
+    private static final long BELOW_APRIL = 32204390400000L;
+
+    private final JdbcTemplate session = mock(JdbcTemplate.class);
+    private final RecentMessageCache recentMessageCache = mock(RecentMessageCache.class);
+
+    @Test
+    void boundsEachPartitionAtTheFirstIdOfTheNextMonth() {
+        assertThat(MessagePartitionMaintenance.partitionDefinition(YearMonth.of(2024, 1)))
+                .isEqualTo("PARTITION p202401 VALUES LESS THAN (" + BELOW_FEBRUARY + ")");
+        assertThat(MessagePartitionMaintenance.monthOf(BELOW_FEBRUARY - 1)).isEqualTo(YearMonth.of(2024, 1));
+        assertThat(MessagePartitionMaintenance.monthOf(BELOW_FEBRUARY)).isEqualTo(YearMonth.of(2024, 2));
+    }
+
+    @Test
+    void splitsTheFuturePartitionUpToMonthsAhead() {
+        partitions("p202401", BELOW_FEBRUARY, "p202402", BELOW_MARCH, "p202403", BELOW_APRIL);
+
+        maintenance(3, 0).maintain(session, YearMonth.of(2024, 3));
+
+        verify(session).execute("ALTER TABLE messages REORGANIZE PARTITION p_future INTO ("
+                + partitionsFrom(YearMonth.of(2024, 4), 3) + "PARTITION p_future VALUES LESS THAN MAXVALUE)");
+    }
+
+    @Test
+    void addsNothingWhenPartitionsAreAlreadyAhead() {
+        partitions("p202401", BELOW_FEBRUARY, "p202402", BELOW_MARCH, "p202403", BELOW_APRIL);
+
+        maintenance(1, 0).maintain(session, YearMonth.of(2024, 2));
+
+        verify(session, never()).execute(anyString());
+    }
+
+    @Test
+    void dropsPartitionsOlderThanTheRetentionAndTheirPendingDeliveries() {
+        partitions("p202401", BELOW_FEBRUARY, "p202402", BELOW_MARCH, "p202403", BELOW_APRIL);
+
+        maintenance(0, 1).maintain(session, YearMonth.of(2024, 3));
+
+        verify(session).execute("ALTER TABLE messages DROP PARTITION p202401");
+        verify(session).update("DELETE FROM pending_deliveries WHERE message_id < ?", BELOW_FEBRUARY);
+        verify(recentMessageCache).messagesExpired(BELOW_FEBRUARY);
+    }
+
+    @Test
+    void alwaysKeepsTheNewestBoundedPartition() {
+        partitions("p202401", BELOW_FEBRUARY);
+
+        maintenance(0, 1).maintain(session, YearMonth.of(2025, 1));
+
+        verify(session).execute(
+                "ALTER TABLE messages REORGANIZE PARTITION p_future INTO (" + partitionsFrom(YearMonth.of(2024, 2), 12)
+                + "PARTITION p_future VALUES LESS THAN MAXVALUE)");
+        verify(session, never()).execute("ALTER TABLE messages DROP PARTITION p202401");
+    }
+
+    @Test
+    void skipsATableThatIsNotPartitioned() {
+        Map<String, Object> row = new HashMap<>();
+        row.put("name", null);
+        row.put("bound", null);
+        when(session.queryForList(anyString())).thenReturn(List.of(row));
+
+        maintenance(3, 1).maintain(session, YearMonth.of(2024, 3));
+
+        verify(session, never()).execute(anyString());
+    }
+
+    private MessagePartitionMaintenance maintenance(int monthsAhead, int retentionMonths) {
+        return new MessagePartitionMaintenance(mock(JdbcTemplate.class), recentMessageCache, monthsAhead,
+                retentionMonths, 60, new SimpleMeterRegistry());
+    }
+
+    // Name and bound pairs as information_schema lists them, followed by p_future
+    private void partitions(Object... namesAndBounds) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int i = 0; i < namesAndBounds.length; i += 2) {
+            rows.add(Map.of("name", namesAndBounds[i], "bound", namesAndBounds[i + 1].toString()));
+        }
+        rows.add(Map.of("name", "p_future", "bound", "MAXVALUE"));
+        when(session.queryForList(anyString())).thenReturn(rows);
+    }
+
+    private static String partitionsFrom(YearMonth first, int count) {
+        StringBuilder definitions = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            definitions.append(MessagePartitionMaintenance.partitionDefinition(first.plusMonths(i))).append(", ");
+        }
+        return definitions.toString();
+    }
+}
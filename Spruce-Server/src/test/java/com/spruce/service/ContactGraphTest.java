@@ -0,0 +1,82 @@
+package com.spruce.service;
+
+import com.spruce.cluster.ClusterRouter;
+import com.spruce.repository.ContactRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ContactGraphTest {
+
+    private final ContactRepository contactRepository = mock(ContactRepository.class);
+    private final ClusterRouter clusterRouter = mock(ClusterRouter.class);
+    private final ContactGraph graph = new ContactGraph(contactRepository, 2, clusterRouter, new SimpleMeterRegistry());
+
+    @Test
+    void servesRepeatedLookupsFromTheCachedArray() {
+        when(contactRepository.findAcceptedContactIds(1L)).thenReturn(List.of(3L, 7L));
+
+        assertThat(graph.contactsOf(1)).containsExactly(3, 7);
+        assertThat(graph.areContacts(1, 7)).isTrue();
+        assertThat(graph.areContacts(1, 4)).isFalse();
+        verify(contactRepository, times(1)).findAcceptedContactIds(1L);
+    }
+
+    @Test
+    void replacesCachedArraysInsteadOfWritingThem() {
+        when(contactRepository.findAcceptedContactIds(1L)).thenReturn(List.of(3L, 7L));
+        when(contactRepository.findAcceptedContactIds(5L)).thenReturn(List.of());
+        long[] before = graph.contactsOf(1);
+        graph.contactsOf(5);
+
+        graph.added(1, 5);
+
+        assertThat(before).containsExactly(3, 7);
+        assertThat(graph.contactsOf(1)).containsExactly(3, 5, 7);
+        assertThat(graph.contactsOf(5)).containsExactly(1);
+        verify(contactRepository, times(1)).findAcceptedContactIds(1L);
+    }
+
+    @Test
+    void doesNotCacheALoadThatRacedWithAnAddition() {
+        when(contactRepository.findAcceptedContactIds(1L)).thenAnswer(invocation -> {
+            graph.added(1, 9);
+            return List.of(3L);
+        });
+
+        assertThat(graph.contactsOf(1)).containsExactly(3);
+
+        when(contactRepository.findAcceptedContactIds(1L)).thenReturn(List.of(3L, 9L));
+        assertThat(graph.contactsOf(1)).containsExactly(3, 9);
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedUserBeyondMaxEntries() {
+        when(contactRepository.findAcceptedContactIds(1L)).thenReturn(List.of(2L));
+        when(contactRepository.findAcceptedContactIds(2L)).thenReturn(List.of(1L));
+        when(contactRepository.findAcceptedContactIds(3L)).thenReturn(List.of());
+
+        graph.contactsOf(1);
+        graph.contactsOf(2);
+        graph.contactsOf(1);
+        graph.contactsOf(3);
+        graph.contactsOf(2);
+
+        verify(contactRepository, times(2)).findAcceptedContactIds(2L);
+        verify(contactRepository, times(1)).findAcceptedContactIds(1L);
+    }
+
+    @Test
+    void publishesNewContactsToOtherNodes() {
+        graph.contactAdded(1, 5);
+
+        verify(clusterRouter).invalidate(ContactGraph.TOPIC, "1:5");
+    }
+}
@@ -0,0 +1,95 @@
+package com.spruce.service;
+
+import com.spruce.cluster.ClusterRouter;
+import com.spruce.repository.GroupMemberRepository;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class GroupMembershipCacheTest {
+
+    private final GroupMemberRepository groupMemberRepository = mock(GroupMemberRepository.class);
+    private final ClusterRouter clusterRouter = mock(ClusterRouter.class);
+    private final GroupMembershipCache cache = new GroupMembershipCache(groupMemberRepository, clusterRouter);
+
+    @Test
+    void replacesTheCachedArrayOnJoinAndLeave() {
+        when(groupMemberRepository.findMemberIds(5L)).thenReturn(List.of(2L, 8L));
+        long[] before = cache.getMembers(5L);
+
+        cache.memberAdded(5, 4);
+        long[] joined = cache.getMembers(5L);
+        cache.memberRemoved(5, 2);
+
+        assertThat(before).containsExactly(2, 8);
+        assertThat(joined).containsExactly(2, 4, 8);
+        assertThat(cache.getMembers(5L)).containsExactly(4, 8);
+        verify(groupMemberRepository, times(1)).findMemberIds(5L);
+    }
+
+    @Test
+    void keepsTheSameArrayForRepeatedJoinsAndUnknownLeaves() {
+        when(groupMemberRepository.findMemberIds(5L)).thenReturn(List.of(2L, 8L));
+        long[] before = cache.getMembers(5L);
+
+        cache.memberAdded(5, 8);
+        cache.memberRemoved(5, 3);
+
+        assertThat(cache.getMembers(5L)).isSameAs(before);
+    }
+
+    @Test
+    void ignoresEditsToGroupsThatAreNotCached() {
+        cache.memberAdded(5, 4);
+
+        when(groupMemberRepository.findMemberIds(5L)).thenReturn(List.of(2L));
+        assertThat(cache.getMembers(5L)).containsExactly(2);
+    }
+
+    @Test
+    void doesNotCacheALoadThatRacedWithAJoin() {
+        when(groupMemberRepository.findMemberIds(5L)).thenAnswer(invocation -> {
+            cache.memberAdded(5, 4);
+            return List.of(2L);
+        });
+        assertThat(cache.getMembers(5L)).containsExactly(2);
+
+        when(groupMemberRepository.findMemberIds(5L)).thenReturn(List.of(2L, 4L));
+        assertThat(cache.isMember(5L, 4L)).isTrue();
+    }
+
+    @Test
+    void appliesEditsFromOtherNodes() {
+        ArgumentCaptor<ClusterRouter.InvalidationListener> listener =
+                ArgumentCaptor.forClass(ClusterRouter.InvalidationListener.class);
+        verify(clusterRouter).addInvalidationListener(eq(GroupMembershipCache.TOPIC), listener.capture());
+        when(groupMemberRepository.findMemberIds(5L)).thenReturn(List.of(2L, 8L));
+        cache.getMembers(5L);
+
+        listener.getValue().invalidated("+5:4");
+        listener.getValue().invalidated("-5:8");
+        assertThat(cache.getMembers(5L)).containsExactly(2, 4);
+
+        listener.getValue().invalidated("=5");
+        assertThat(cache.getMembers(5L)).containsExactly(2, 8);
+    }
+
+    @Test
+    void publishesJoinsAndLeaves() {
+        cache.memberChanged(5, 4, true);
+        cache.memberChanged(5, 4, false);
+        cache.membershipChanged(5);
+
+        verify(clusterRouter).invalidate(GroupMembershipCache.TOPIC, "+5:4");
+        verify(clusterRouter).invalidate(GroupMembershipCache.TOPIC, "-5:4");
+        verify(clusterRouter).invalidate(GroupMembershipCache.TOPIC, "=5");
+    }
+}
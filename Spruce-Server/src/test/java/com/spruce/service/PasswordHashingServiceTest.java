@@ -0,0 +1,59 @@
+package com.spruce.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PasswordHashingServiceTest {
+
+    private final PasswordEncoder passwordEncoder = mock(PasswordEncoder.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final PasswordHashingService hashing = new PasswordHashingService(passwordEncoder, 10, 1, 1, meterRegistry);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void shutdown() {
+        release.countDown();
+        hashing.shutdown();
+    }
+
+    @Test
+    void failsFastOnceThePoolAndQueueAreFull() throws Exception {
+        when(passwordEncoder.encode(anyString())).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return "$2a$10$hash";
+        });
+        CompletableFuture<String> running = hashing.hash("a");
+        CompletableFuture<String> queued = hashing.hash("b");
+
+        CompletableFuture<String> rejected = hashing.hash("c");
+
+        assertThat(rejected).isCompletedExceptionally();
+        assertThatThrownBy(rejected::join).hasCauseInstanceOf(RejectedExecutionException.class);
+        assertThat(meterRegistry.counter("spruce.auth.hash.rejected").count()).isEqualTo(1);
+
+        release.countDown();
+        assertThat(running.get(5, TimeUnit.SECONDS)).isEqualTo("$2a$10$hash");
+        assertThat(queued.get(5, TimeUnit.SECONDS)).isEqualTo("$2a$10$hash");
+    }
+
+    @Test
+    void needsRehashOnlyWhenTheCostDiffers() {
+        assertThat(hashing.needsRehash("$2a$10$abcdefghijklmnopqrstuv")).isFalse();
+        assertThat(hashing.needsRehash("$2a$12$abcdefghijklmnopqrstuv")).isTrue();
+        assertThat(hashing.needsRehash("plain")).isFalse();
+        assertThat(hashing.needsRehash(null)).isFalse();
+    }
+}
@@ -0,0 +1,107 @@
+package com.spruce.service;
+
+import com.spruce.cluster.ClusterRouter;
+import com.spruce.websocket.OutboundSession;
+import com.spruce.websocket.OutboundSessionFactory;
+import com.spruce.websocket.SessionRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PresenceServiceTest {
+
+    private final SessionRegistry sessionRegistry = new SessionRegistry(new SimpleMeterRegistry());
+    private final OutboundSessionFactory sessionFactory = new OutboundSessionFactory(100, 1_048_576, 10_000,
+            OutboundSession.OverflowPolicy.DROP_OLDEST, 1,
+            new StaticListableBeanFactory().getBeanProvider(OutboundSession.SpillHandler.class),
+            new SimpleMeterRegistry());
+    private final ContactGraph contactGraph = mock(ContactGraph.class);
+    private final PresenceService presence = new PresenceService(sessionRegistry, contactGraph,
+            mock(ClusterRouter.class), 20, 1, new SimpleMeterRegistry());
+    // Threads that read contact lists from the database
+    private final Queue<String> loadedOn = new ConcurrentLinkedQueue<>();
+
+    @BeforeEach
+    void start() {
+        when(contactGraph.contactsOf(anyLong())).thenAnswer(invocation -> {
+            loadedOn.add(Thread.currentThread().getName());
+            return new long[0];
+        });
+        presence.start();
+    }
+
+    @AfterEach
+    void stop() {
+        presence.stop();
+        sessionFactory.shutdown();
+    }
+
+    @Test
+    void loadsUncachedContactListsOffTheFlusher() throws Exception {
+        WebSocketSession contact = connect(2);
+        doAnswer(invocation -> {
+            loadedOn.add(Thread.currentThread().getName());
+            return new long[] {2};
+        }).when(contactGraph).contactsOf(1L);
+
+        connect(1);
+        presence.sessionChanged(1);
+
+        verify(contact, timeout(2000)).sendMessage(new TextMessage("{\"type\":\"presence\",\"online\":[1],\"offline\":[]}"));
+        assertThat(loadedOn).isNotEmpty().allMatch(thread -> thread.startsWith("presence-load-"));
+    }
+
+    @Test
+    void notifiesFromTheCachedListWithoutLoading() throws Exception {
+        WebSocketSession contact = connect(2);
+        when(contactGraph.cachedContactsOf(1L)).thenReturn(new long[] {2});
+
+        connect(1);
+        presence.sessionChanged(1);
+
+        verify(contact, timeout(2000)).sendMessage(new TextMessage("{\"type\":\"presence\",\"online\":[1],\"offline\":[]}"));
+        verify(contactGraph, never()).contactsOf(1L);
+    }
+
+    @Test
+    void sendsTheSnapshotAfterLoadingOnALoaderThread() throws Exception {
+        when(contactGraph.cachedContactsOf(2L)).thenReturn(new long[0]);
+        presence.remoteChanges("node-1", "+2", false);
+        doAnswer(invocation -> {
+            loadedOn.add(Thread.currentThread().getName());
+            return new long[] {2, 3};
+        }).when(contactGraph).contactsOf(1L);
+        WebSocketSession socket = mock(WebSocketSession.class);
+        when(socket.isOpen()).thenReturn(true);
+
+        presence.sendSnapshot(sessionFactory.wrap(socket, 1));
+
+        verify(socket, timeout(2000)).sendMessage(
+                new TextMessage("{\"type\":\"presence\",\"snapshot\":true,\"online\":[2],\"offline\":[]}"));
+        assertThat(loadedOn).containsExactly("presence-load-0");
+    }
+
+    private WebSocketSession connect(long userId) {
+        WebSocketSession socket = mock(WebSocketSession.class);
+        when(socket.isOpen()).thenReturn(true);
+        when(socket.getId()).thenReturn("ws-" + userId);
+        sessionRegistry.register(sessionFactory.wrap(socket, userId));
+        return socket;
+    }
+}
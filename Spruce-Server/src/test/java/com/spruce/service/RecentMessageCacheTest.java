@@ -0,0 +1,137 @@
+package com.spruce.service;
+
+import com.spruce.cluster.ClusterRouter;
+import com.spruce.model.Message;
+import com.spruce.service.RecentMessageCache.ConversationKey;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RecentMessageCacheTest {
+
+    private static final ConversationKey ALICE_BOB = ConversationKey.direct(2, 1);
+
+    private final ClusterRouter clusterRouter = mock(ClusterRouter.class);
+    private final RecentMessageCache cache = new RecentMessageCache(5, 1_000_000, clusterRouter, new SimpleMeterRegistry());
+
+    @Test
+    void answersTheNewestPageOnlyWhenTheTailCoversIt() {
+        appendRange(10, 14);
+
+        assertThat(ids(cache.lookup(ALICE_BOB, null, null, 3))).containsExactly(12L, 13L, 14L);
+        // Older messages may exist only in the database
+        assertThat(cache.lookup(ALICE_BOB, null, null, 5)).isNull();
+    }
+
+    @Test
+    void pagesBackwardsAndForwardsInsideACompleteTail() {
+        cache.seed(ALICE_BOB, messages(10, 13), true, cache.generation());
+
+        MessageHistoryService.Page older = cache.lookup(ALICE_BOB, 13L, null, 2);
+        assertThat(ids(older)).containsExactly(11L, 12L);
+        assertThat(older.hasMore()).isTrue();
+        assertThat(older.nextCursor()).isEqualTo(11L);
+
+        MessageHistoryService.Page first = cache.lookup(ALICE_BOB, 11L, null, 2);
+        assertThat(ids(first)).containsExactly(10L);
+        assertThat(first.hasMore()).isFalse();
+
+        MessageHistoryService.Page newer = cache.lookup(ALICE_BOB, null, 10L, 2);
+        assertThat(ids(newer)).containsExactly(11L, 12L);
+        assertThat(newer.nextCursor()).isEqualTo(12L);
+    }
+
+    @Test
+    void missesForwardPagesThatStartBeforeAnIncompleteTail() {
+        appendRange(10, 12);
+
+        assertThat(cache.lookup(ALICE_BOB, null, 5L, 2)).isNull();
+        assertThat(ids(cache.lookup(ALICE_BOB, null, 10L, 5))).containsExactly(11L, 12L);
+    }
+
+    @Test
+    void isNotCompleteWhenTheSeedOverflowsTheCapacity() {
+        cache.seed(ALICE_BOB, messages(1, 7), true, cache.generation());
+
+        assertThat(ids(cache.lookup(ALICE_BOB, null, null, 4))).containsExactly(4L, 5L, 6L, 7L);
+        assertThat(cache.lookup(ALICE_BOB, null, null, 5)).isNull();
+    }
+
+    @Test
+    void skipsASeedReadBeforeATailWasDropped() {
+        long generation = cache.generation();
+        cache.invalidate(ConversationKey.group(9));
+
+        cache.seed(ALICE_BOB, messages(10, 12), true, generation);
+
+        assertThat(cache.lookup(ALICE_BOB, null, null, 10)).isNull();
+        assertThat(cache.getConversationCount()).isZero();
+    }
+
+    @Test
+    void trimsExpiredMessagesAndDropsEmptyTails() {
+        cache.seed(ALICE_BOB, messages(10, 12), true, cache.generation());
+        cache.seed(ConversationKey.group(9), messages(3, 4), true, cache.generation());
+
+        cache.trimBelow(11);
+
+        assertThat(ids(cache.lookup(ALICE_BOB, null, null, 10))).containsExactly(11L, 12L);
+        assertThat(cache.getConversationCount()).isEqualTo(1);
+    }
+
+    @Test
+    void appliesInvalidationsFromOtherNodes() {
+        ArgumentCaptor<ClusterRouter.InvalidationListener> listener =
+                ArgumentCaptor.forClass(ClusterRouter.InvalidationListener.class);
+        verify(clusterRouter).addInvalidationListener(eq(RecentMessageCache.TOPIC), listener.capture());
+        cache.seed(ALICE_BOB, messages(10, 12), true, cache.generation());
+        cache.seed(ConversationKey.group(9), messages(3, 4), true, cache.generation());
+
+        listener.getValue().invalidated("d:1:2,g:9:9");
+
+        assertThat(cache.getConversationCount()).isZero();
+        assertThat(cache.getTotalBytes()).isZero();
+    }
+
+    @Test
+    void publishesChangedConversationsWhenClustered() {
+        when(clusterRouter.isEnabled()).thenReturn(true);
+
+        cache.conversationsChanged(List.of(ALICE_BOB, ConversationKey.group(9)));
+
+        verify(clusterRouter).invalidate(RecentMessageCache.TOPIC, "d:1:2,g:9:9");
+    }
+
+    private void appendRange(long from, long to) {
+        for (Message message : messages(from, to)) {
+            cache.append(message);
+        }
+    }
+
+    private static List<Message> messages(long from, long to) {
+        List<Message> result = new ArrayList<>();
+        for (long id = from; id <= to; id++) {
+            Message message = new Message();
+            message.setId(id);
+            message.setSenderId(1L);
+            message.setReceiverId(2L);
+            message.setCiphertext("AA==");
+            result.add(message);
+        }
+        return result;
+    }
+
+    private static List<Long> ids(MessageHistoryService.Page page) {
+        assertThat(page).isNotNull();
+        return page.messages().stream().map(Message::getId).toList();
+    }
+}
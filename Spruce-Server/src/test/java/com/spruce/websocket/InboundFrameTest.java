@@ -0,0 +1,67 @@
+package com.spruce.websocket;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class InboundFrameTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    void readsTheFieldsTheServerActsOnAndSkipsTheRest() throws IOException {
+        InboundFrame frame = InboundFrame.scan("{\"type\":\"message\",\"extra\":{\"nested\":[1,2]},"
+                + "\"receiverId\":\"42\",\"ciphertext\":\"AA==\",\"iv\":\"BB==\",\"clientId\":7,\"ids\":[1,\"2\",null]}");
+
+        assertThat(frame.getType()).isEqualTo("message");
+        assertThat(frame.getReceiverId()).isEqualTo(42L);
+        assertThat(frame.getGroupId()).isNull();
+        assertThat(frame.getCiphertext()).isEqualTo("AA==");
+        assertThat(frame.getIv()).isEqualTo("BB==");
+        assertThat(frame.getClientId()).isEqualTo(7L);
+        assertThat(frame.getIds()).containsExactly(1L, 2L);
+    }
+
+    @Test
+    void rejectsFramesThatAreNotASingleObject() {
+        assertThatThrownBy(() -> InboundFrame.scan("[1,2]")).isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> InboundFrame.scan("{\"type\":\"message\"")).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void rejectsNonNumericIdsAndStructuredScalars() {
+        assertThatThrownBy(() -> InboundFrame.scan("{\"receiverId\":\"abc\"}")).isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> InboundFrame.scan("{\"type\":{\"receiverId\":1}}")).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void splicesServerFieldsAfterTheOriginalTextSoTheyWin() throws IOException {
+        String raw = "{\"type\":\"message\",\"ciphertext\":\"AA==\",\"senderId\":999,\"extra\":[1]}";
+
+        String relay = InboundFrame.scan(raw).splice()
+                .field("senderId", 5)
+                .field("senderName", "a\"b")
+                .field("timestamp", (String) null)
+                .build();
+
+        assertThat(relay).startsWith(raw.substring(0, raw.length() - 1));
+        JsonNode node = MAPPER.readTree(relay);
+        assertThat(node.get("senderId").asLong()).isEqualTo(5);
+        assertThat(node.get("senderName").asText()).isEqualTo("a\"b");
+        assertThat(node.get("timestamp").isNull()).isTrue();
+        assertThat(node.get("ciphertext").asText()).isEqualTo("AA==");
+    }
+
+    @Test
+    void splicesIntoAnEmptyObjectWithoutALeadingComma() throws IOException {
+        String relay = InboundFrame.scan(" { } ").splice().field("id", 1).build();
+
+        assertThat(MAPPER.readTree(relay).fieldNames()).toIterable().isEqualTo(List.of("id"));
+    }
+}